@@ -0,0 +1,171 @@
+package noduledata.imagej;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+
+/**
+ * Runs the segmentation over a folder of images using a bounded pool of worker threads.
+ * Each image is loaded, analyzed and saved by its own job, so a failure in one image
+ * is logged and recorded without stopping the rest of the batch. Results are returned
+ * in the same order the images were given, no matter which job finishes first.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class BatchProcessor {
+
+	private final int threads;
+
+
+	/**
+	 * The work done for a single image.
+	 */
+	public interface ImageJob {
+		/**
+		 * @param image : the loaded image. Only this job has a reference to it.
+		 * @throws Exception : any failure, which is recorded for this image only.
+		 */
+		void process(ImagePlus image) throws Exception;
+	}
+
+
+	/**
+	 * The outcome of one image in the batch.
+	 */
+	public static class BatchResult {
+		public final File file;
+		public final Throwable error;
+		public final long millis;
+
+		BatchResult(File file, Throwable error, long millis) {
+			this.file = file;
+			this.error = error;
+			this.millis = millis;
+		}
+
+		/** @return true if the image was processed without an exception. */
+		public boolean succeeded() {
+			return error == null;
+		}
+	}
+
+
+	/**
+	 * constructor
+	 *
+	 * @param threads : maximum number of images processed at the same time. Values below 1 are treated as 1.
+	 */
+	public BatchProcessor(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+
+	/**
+	 * Processes every given image, at most {@code threads} at a time, and waits for all of them to finish.
+	 *
+	 * @param images : image files to process.
+	 * @param job : work to run on each image.
+	 * @return : one result per image, in the order of the given list.
+	 */
+	public List<BatchResult> process(List<File> images, ImageJob job) {
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, images.size())), new WorkerFactory());
+		List<Future<BatchResult>> futures = new ArrayList<>(images.size());
+
+		for(File file : images) {
+			futures.add(pool.submit(() -> runJob(file, job)));
+		}
+		pool.shutdown();
+
+		List<BatchResult> results = new ArrayList<>(images.size());
+
+		for(int ii = 0; ii < futures.size(); ii++) {
+			try {
+				results.add(futures.get(ii).get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				pool.shutdownNow();
+				results.add(new BatchResult(images.get(ii), e, 0));
+			} catch (ExecutionException e) {
+				results.add(new BatchResult(images.get(ii), e.getCause(), 0));
+			}
+		}
+
+		logSummary(results);
+		return results;
+	}
+
+
+	/**
+	 * Loads and processes a single image, catching anything it throws.
+	 */
+	private BatchResult runJob(File file, ImageJob job) {
+		long start = System.currentTimeMillis();
+
+		try {
+			ImagePlus image = new ImagePlus(file.getPath());
+
+			if(image.getProcessor() == null) {
+				throw new IllegalStateException("Could not open " + file.getName());
+			}
+			job.process(image);
+
+		}catch(Throwable e) {
+			System.out.println("++++++++++++++++++++++++++");
+			System.out.println("Could not generate data for " + file.getName());
+			System.out.println("++++++++++++++++++++++++++");
+			e.printStackTrace();
+
+			return new BatchResult(file, e, System.currentTimeMillis() - start);
+		}
+
+		return new BatchResult(file, null, System.currentTimeMillis() - start);
+	}
+
+
+	/**
+	 * Logs one line per image and a count of the failures.
+	 */
+	private void logSummary(List<BatchResult> results) {
+		int failed = 0;
+
+		IJ.log("=========================================");
+		for(BatchResult result : results) {
+			if(result.succeeded()) {
+				IJ.log(result.file.getName() + ": done in " + result.millis + " ms");
+			}
+			else {
+				IJ.log(result.file.getName() + ": FAILED (" + result.error + ")");
+				failed++;
+			}
+		}
+		IJ.log(results.size() - failed + " of " + results.size() + " images processed.");
+		IJ.log("=========================================");
+	}
+
+
+	/**
+	 * Names the worker threads so they're recognizable in stack traces.
+	 */
+	private static class WorkerFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "nodule-segmentation-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package noduledata.imagej;
+
+import ij.ImagePlus;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+
+/**
+ * The pixels of one image the pipeline reads more than once, made when first asked for and kept
+ * for the stages after: the packed RGB pixels and the 8-bit greyscale image.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class ChannelProvider {
+
+	private final ImagePlus image;
+	private int[] rgb;   // packed pixels of the image, made on first use.
+	private byte[] grey; // greyscale of the image, made on first use.
+
+
+	/**
+	 * @param image : RGB image the channels are of.
+	 */
+	public ChannelProvider(ImagePlus image) {
+		this.image = image;
+	}
+
+
+	/**
+	 * Returns the packed RGB pixels of the image, the image's own array when it's an RGB image.
+	 * Don't change it.
+	 */
+	public synchronized int[] getRGB() {
+		if(rgb == null) {
+			rgb = (int[]) getColorProcessor().getPixels();
+		}
+		return rgb;
+	}
+
+
+	/**
+	 * Returns the image converted to 8-bit greyscale, the same as ImageJ's 8-bit conversion.
+	 * Don't change it.
+	 */
+	public synchronized byte[] getGrey() {
+		if(grey == null) {
+			grey = (byte[]) getColorProcessor().convertToByteProcessor().getPixels();
+		}
+		return grey;
+	}
+
+
+	private ColorProcessor getColorProcessor() {
+		ImageProcessor ip = image.getProcessor();
+		return ip instanceof ColorProcessor ? (ColorProcessor) ip : ip.convertToColorProcessor();
+	}
+}
@@ -0,0 +1,199 @@
+package noduledata.imagej;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.util.ArrayList;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import trainableSegmentation.FeatureStackArray;
+import trainableSegmentation.unsupervised.ColorClustering;
+import trainableSegmentation.unsupervised.ColorClustering.Channel;
+
+
+/**
+ * A "compiled" clusterer. When a model only clusters on the red and/or green channel, the cluster
+ * a pixel lands in only depends on its (R,G) pair, of which there are 65,536. This class runs the
+ * clusterer once over all of them and stores the answers in a lookup table, so segmenting an image
+ * is a single array-indexed pass over its pixels instead of running Weka on every pixel.<br>
+ *
+ * The table stores the same values as the binary map NoduleData gets from
+ * {@link ColorClustering#createProbabilityMaps(FeatureStackArray)}: 0 for nodule pixels and 255
+ * for background.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class ClusterLut {
+
+	private static final int MAGIC = 0x4E4C5554; // "NLUT"
+	private static final int VERSION = 1;
+	protected static final String EXTENSION = ".lut";
+	protected static final int SIZE = 256 * 256;
+
+	// lut[(r << 8) | g] is the map value for a pixel with red value r and green value g.
+	private final byte[] lut;
+
+
+	private ClusterLut(byte[] lut) {
+		this.lut = lut;
+	}
+
+
+	/**
+	 * @param channels : channels the model clusters on.
+	 * @return : true if the cluster of a pixel only depends on its red and green values.
+	 */
+	public static boolean supports(ArrayList<Channel> channels) {
+		if(channels == null || channels.isEmpty()) {
+			return false;
+		}
+		for(Channel channel : channels) {
+			if(channel != Channel.Red && channel != Channel.Green) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Returns the 256x256 image holding every (R,G) pair, with red along x and green along y.
+	 */
+	static ImagePlus grid() {
+		int[] pixels = new int[SIZE];
+		for(int r = 0; r < 256; r++) {
+			for(int g = 0; g < 256; g++) {
+				pixels[g * 256 + r] = (0xff << 24) | (r << 16) | (g << 8);
+			}
+		}
+		return new ImagePlus("RG grid", new ColorProcessor(256, 256, pixels));
+	}
+
+
+	/**
+	 * Evaluates the clusterer loaded into the given cluster object over every (R,G) pair.
+	 *
+	 * @param cluster : cluster object with a loaded .model file, made with the image from {@link #grid()}.
+	 * @param channels : channels the model clusters on. Must be supported, see {@link #supports(ArrayList)}.
+	 * @return : the compiled model.
+	 */
+	static ClusterLut compile(ColorClustering cluster, ArrayList<Channel> channels) {
+		if(!supports(channels)) {
+			throw new IllegalArgumentException("Only red and green channel models can be compiled.");
+		}
+
+		ImagePlus grid = grid();
+		cluster.setChannels(channels);
+		cluster.setNumSamples(SIZE);
+
+		FeatureStackArray fsa = cluster.createFSArray(grid);
+		ImagePlus maps = cluster.createProbabilityMaps(fsa);
+
+		// same slice NoduleData keeps: the probability of being background.
+		ImageStack stack = maps.getStack();
+		ImageProcessor background = stack.getProcessor(stack.getSize());
+
+		byte[] lut = new byte[SIZE];
+		for(int r = 0; r < 256; r++) {
+			for(int g = 0; g < 256; g++) {
+				lut[(r << 8) | g] = (byte) (background.getf(r, g) >= 0.5f ? 255 : 0);
+			}
+		}
+
+		return new ClusterLut(lut);
+	}
+
+
+	/**
+	 * Segments the given image with a single pass over its pixels.
+	 *
+	 * @param image : RGB image to segment.
+	 * @return : binary map, 0 for nodule pixels and 255 for background.
+	 */
+	public ImagePlus segment(ImagePlus image) {
+		int[] pixels = (int[]) image.getProcessor().convertToColorProcessor().getPixels();
+		byte[] map = new byte[pixels.length];
+
+		for(int ii = 0; ii < pixels.length; ii++) {
+			map[ii] = lut[(pixels[ii] >> 8) & 0xffff]; // (r << 8) | g
+		}
+
+		return new ImagePlus("1d", new ByteProcessor(image.getWidth(), image.getHeight(), map));
+	}
+
+
+	/**
+	 * Returns the map value for the given red and green values. 0 ==> nodule.
+	 */
+	public int get(int r, int g) {
+		return lut[(r << 8) | g] & 0xff;
+	}
+
+
+	/**
+	 * Returns the file a compiled model is saved to, next to its .model file.
+	 */
+	static File fileFor(String modelPath, ArrayList<Channel> channels) {
+		StringBuilder name = new StringBuilder(modelPath);
+		for(Channel channel : channels) {
+			name.append('.').append(channel.toString());
+		}
+		return new File(name.append(EXTENSION).toString());
+	}
+
+
+	/**
+	 * Reads a compiled model saved by {@link #save(File, long)}.
+	 *
+	 * @param file : .lut file to read.
+	 * @param modelModified : last modified time of the .model file it was compiled from.
+	 * @return : the compiled model, or null if the file is missing, unreadable or was made from an older .model file.
+	 */
+	static ClusterLut load(File file, long modelModified) {
+		if(!file.isFile()) {
+			return null;
+		}
+
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != modelModified) {
+				return null;
+			}
+			byte[] lut = new byte[SIZE];
+			in.readFully(lut);
+			return new ClusterLut(lut);
+		}catch(IOException e) {
+			IJ.log("Could not read compiled model " + file.getName() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+
+	/**
+	 * Saves this compiled model. Failing to save is logged and otherwise ignored, since
+	 * the model can always be compiled again.
+	 *
+	 * @param file : .lut file to write.
+	 * @param modelModified : last modified time of the .model file it was compiled from.
+	 */
+	void save(File file, long modelModified) {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(modelModified);
+			out.write(lut);
+		}catch(IOException e) {
+			IJ.log("Could not save compiled model " + file.getName() + ": " + e.getMessage());
+		}
+	}
+}
@@ -4,28 +4,26 @@ import java.awt.Color;
 import java.awt.Point;
 import java.awt.Polygon;
 import java.awt.Rectangle;
-import java.awt.geom.Area;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 
 
 import java.lang.Math;
 
 
-import ij.WindowManager;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.Overlay;
 import ij.gui.Plot;
 import ij.gui.Roi;
 import ij.gui.ShapeRoi;
-import ij.measure.Measurements;
 import ij.measure.ResultsTable;
-import ij.plugin.filter.Analyzer;
-import ij.plugin.filter.ThresholdToSelection;
-import ij.plugin.frame.RoiManager;
-import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 import ij.process.EllipseFitter;
@@ -46,63 +44,80 @@ public class ColorData {
 	private final double WEAKCIRCTHRESHOLD = .45;
 	private final double STRONGCIRCTHRESHOLD = .6;
 	private final int LOWAREATHRESHOLD = 300;      // areas below this are likely noise.
-	private final int measurements = Measurements.AREA + Measurements.AREA_FRACTION + Measurements.CIRCULARITY;
 	protected ImagePlus image;
 	private final static int[] WHITE = {255,255,255};
 	private double HIGHAREATHRESHOLD; // areas above this are likely two or more nodules.
 	
 	
 	public int numNodules = -1;
-	private ResultsTable table;
+	private ComponentMeasurements table; // one row per roi.
 	
 	// areas[][[] is nx2 with n Rois. For roi "i", [i][0] is numNodules in that Roi, [i][1] is total area of ROI.
 	private int[][] areas;
 	private ShapeRoi[] rois;
-	// map is a binary image coloring in all the nodules of this type.
-	private ImagePlus map;
+	// map says which pixels are nodules of this type. Shared with the other types of the image.
+	private PixelClassMap map;
 	private int[] pixels;
 	private int[] singleNodulesIndices; // list of ROI indices thought to be singular nodules 
 	private NoduleClump[] noduleClumps;
-	private RoiManager manager;
+	private IdentityHashMap<Roi, Integer> roiIndices;   // index of every roi in rois[], null ==> rebuilt when next needed.
+	private HashMap<Integer, NoduleClump> clumpIndices; // clump at every clumped roi index, null ==> rebuilt when next needed.
+	// pixels of every roi as they were last drawn on the map, made on first use.
+	private IdentityHashMap<Roi, RunLengthRoi> rasters = new IdentityHashMap<>();
 	private double[] circularity; 
+	protected boolean headless = false; // true ==> never show windows or ask the user anything.
 
 	
 	/**
 
 	 * constructor method. 
 	 * 
-	 * @param manager : RoiManager object. It's best practice to not have multiple of this object.
 	 * @param color : the color of the class of roi's of interest.
 	 * @param colorThreshold : area threashold for a single nodule of this type.
 	 * @param im : image we're doing analysis on.
 	 */
-	public ColorData(RoiManager manager,int[] color, int colorThreshold, ImagePlus im) {
+	public ColorData(int[] color, int colorThreshold, ImagePlus im) {
 		this.image = im;
-		this.table = new ResultsTable();
+		this.table = new ComponentMeasurements(0);
 		this.rois = null;
 		this.map = null;
 		this.pixels = null;
 		this.singleNodulesIndices = null;
 		this.noduleClumps = null;
-		this.manager = manager;
 		this.COLOR = color;
 		this.areas = null;
 		this.HIGHAREATHRESHOLD = colorThreshold;
 		
 	}
 	
+	/**
+	 * Sets whether this object may show windows or ask the user for input.
+	 * @param headless : true to run without any user interaction.
+	 */
+	public void setHeadless(boolean headless) {
+		this.headless = headless;
+		if(noduleClumps != null) {
+			for(NoduleClump clump : noduleClumps) {
+				clump.setHeadless(headless);
+			}
+		}
+	}
+	
+	
 	/**
 	 * Returns clump at given index.
 	 */
 	public NoduleClump getClump(int index) {
-		 for ( NoduleClump clump : noduleClumps) {
-			 if (clump.index == index) {
-				 return clump;
-			 }
-		 }
-
-		return null;
-		 
+		if(noduleClumps == null) {
+			return null;
+		}
+		if(clumpIndices == null) {
+			clumpIndices = new HashMap<>();
+			for(NoduleClump clump : noduleClumps) {
+				clumpIndices.put(clump.index, clump);
+			}
+		}
+		return clumpIndices.get(index);
 	}
 	
 	
@@ -123,50 +138,98 @@ public class ColorData {
  * Show's the map using ImageJ API.
  */
 	public void showMap() {
-		map.flatten().show();
+		getMap().show();
 	}
 	
 	/** Replaces ROI at the given index with new ROI Does nothing if index is invalid.*/
 	
 	
 	public void setRoi(int index, ShapeRoi roi) {
-		if (index >= 0 && index < rois.length) {
-			rois[index] = roi;
-		}
-		
-		int newArea = roi.getContainedPoints().length;
-		areas[index][1] = newArea;
-		updatePixels();
-		updateMap();
-		//updateAreas();
+		setArrayOfRois(new int[] {index}, new ShapeRoi[] {roi});
 	}//=====================================
 	
 	
 	/**
-	 * updates pixels using current Roi's. 
+	 * Replaces the rois at the given indices, updating the map once for all of them.
+	 * @param indices : indices of the rois to replace. Invalid ones are skipped.
+	 * @param replacements : the new roi for each index.
 	 */
-	private void updatePixels() {
-		ArrayList<Integer> newPixels = new ArrayList<>();
-		
-		for(Roi roi : rois) {
-			if(roi.getContainedPoints() == null) {
+	public void setArrayOfRois(int[] indices, ShapeRoi[] replacements) {
+		ArrayList<RunLengthRoi> oldRasters = new ArrayList<>();
+		ArrayList<Roi> newRois = new ArrayList<>();
+		for(int ii = 0; ii < indices.length; ii++) {
+			int index = indices[ii];
+			ShapeRoi roi = replacements[ii];
+			if (index < 0 || index >= rois.length) {
 				continue;
 			}
-			for(Point p : roi.getContainedPoints()) {
-				int index = p.y * this.image.getWidth() + p.x;
-				newPixels.add(index);
+			ShapeRoi oldRoi = rois[index];
+			rois[index] = roi;
+			if(roiIndices != null) {
+				roiIndices.remove(oldRoi);
+				roiIndices.put(roi, index);
 			}
+			// the old roi may be this same object edited in place, so its cached pixels are the old ones.
+			oldRasters.add(forget(oldRoi));
+			rasters.remove(roi);
 			
+			areas[index][1] = getRaster(roi).getArea();
+			newRois.add(roi);
 		}
-		
-		int[] thesePixels = new int[newPixels.size()];
-		
-		int ii = 0;
-		for(int point : newPixels) {
-			thesePixels[ii++] = point;
+		updateMap(oldRasters.toArray(new RunLengthRoi[0]), newRois.toArray(new Roi[0]));
+	}
+	
+	
+	/**
+	 * Updates the map after rois were removed, replaced or added: the pixels of the old rois are 
+	 * cleared, the rois left that overlap the rectangle around all of them are drawn back in, in one 
+	 * pass, then the new rois are drawn. Nothing outside the old and new rois is touched. The pixel 
+	 * list is rebuilt from the map the next time it's asked for.
+	 * @param oldRasters : pixels of the rois that were removed or replaced.
+	 * @param newRois : rois that were added or replaced them.
+	 */
+	private void updateMap(RunLengthRoi[] oldRasters, Roi[] newRois) {
+		if(map == null) {
+			return;
 		}
-		this.pixels = Arrays.stream(thesePixels).distinct().toArray();
 		
+		Rectangle cleared = null;
+		for(RunLengthRoi raster : oldRasters) {
+			map.clear(raster, getPixelClass());
+			cleared = cleared == null ? raster.getBounds() : cleared.union(raster.getBounds());
+		}
+		if(cleared != null) {
+			for(Roi roi : rois) {
+				if(roi != null && roi.getBounds().intersects(cleared)) {
+					map.add(getRaster(roi), getPixelClass(), cleared);
+				}
+			}
+		}
+		for(Roi roi : newRois) {
+			map.add(getRaster(roi), getPixelClass());
+		}
+		this.pixels = null;
+	}
+	
+	
+	/**
+	 * Returns the pixels of the given roi, rasterizing it the first time. 
+	 * Rois edited in place have to go through setRoi to be rasterized again.
+	 */
+	RunLengthRoi getRaster(Roi roi) {
+		RunLengthRoi raster = rasters.get(roi);
+		if(raster == null) {
+			raster = RunLengthRoi.of(roi);
+			rasters.put(roi, raster);
+		}
+		return raster;
+	}
+	
+	
+	/** drops the cached pixels of the roi and returns them, rasterizing it if they weren't cached. */
+	private RunLengthRoi forget(Roi roi) {
+		RunLengthRoi raster = rasters.remove(roi);
+		return raster != null ? raster : RunLengthRoi.of(roi);
 	}
 	
 
@@ -176,6 +239,8 @@ public class ColorData {
  */
 	public void setRois(ShapeRoi[] rois) {
 		this.rois = rois;
+		this.roiIndices = null;
+		this.rasters.clear();
 		
 	}
 
@@ -204,6 +269,11 @@ public class ColorData {
 			return -1;
 		}
 		
+		Integer index = indexOf(roi);
+		if(index != null) {
+			return index;
+		}
+		// not one of ours, look for an equal one.
 		for (int ii = 0; ii < rois.length; ii++) {
 			if (rois[ii] != null) {
 				if(rois[ii].equals(roi)) {
@@ -216,6 +286,20 @@ public class ColorData {
 	}
 	
 	
+	/** returns the index of this very roi object, null if it isn't in the array. */
+	private Integer indexOf(Roi roi) {
+		if(roiIndices == null) {
+			roiIndices = new IdentityHashMap<>(rois.length * 2);
+			for(int ii = 0; ii < rois.length; ii++) {
+				if(rois[ii] != null) {
+					roiIndices.put(rois[ii], ii);
+				}
+			}
+		}
+		return roiIndices.get(roi);
+	}
+	
+	
 	
 	/**
 	 * appends roi object to end of list of Roi objects.
@@ -230,8 +314,11 @@ public class ColorData {
 		
 		newrois[rois.length] = roi;
 		this.rois = newrois;
+		if(roiIndices != null) {
+			roiIndices.put(roi, rois.length - 1);
+		}
 		
-		updatePixels();
+		updateMap(new RunLengthRoi[0], new Roi[] {roi});
 		
 		if(this.areas != null) {
 			updateAreas();
@@ -241,148 +328,118 @@ public class ColorData {
 	}
 
 	/**
-	 * Removes the object at the given index from the noduelClumps array.
-	 * @param index1
-	 */
-	private void removeClump(int index1) {
-		
-		NoduleClump[] array = this.noduleClumps;
-		int index = -1;
+ * 
+ * @param roi removes the given ROI from list of rois.
+ */
+	public boolean removeRoi(ShapeRoi roi) {
+	
+		Integer index = rois == null ? null : indexOf(roi);
 		
-		for(int ii = 0; ii < array.length; ii++) {
-			if(array[ii].index == index1) {
-				index = ii;
-				break;
-			}
+		if(index == null) {
+			System.out.println("Error: the given roi is not found.");
+			return false;
 		}
 		
-		
-		if (index < 0 || index >= array.length) {
-            throw new IndexOutOfBoundsException("Index is out of bounds");
-        }
-
-        NoduleClump[] newArray =  new NoduleClump[array.length - 1];
-
-        System.arraycopy(array, 0, newArray, 0, index);
-
-        System.arraycopy(array, index + 1, newArray, index, array.length - index - 1);
-        
-        this.noduleClumps = newArray;
-	}
+		removeIndices(new int[] {index});
+		return true;
+	}//=====================
 	
 
 	/**
- * 
- * @param roi removes the given ROI from list of rois.
- */
-	public boolean removeRoi(ShapeRoi roi) {
-	
-		boolean isClump = false;
-		int index = -1;
+	 * removes the data for the given indices.
+	 * @param indices : indices of the rois to remove, in ascending order.
+	 * @return : true if the rois were removed, false if the indices aren't in ascending order.
+	 */	
+	public boolean removeArrayOfRois(int[] indices) {
 		
-		for (int ii = 0; ii < rois.length; ii++) {
-			
-			if( rois[ii] == roi) {
-				index = ii;
-				break;
+		
+		if(rois.length != table.size()) {
+			throw new IllegalStateException("# of rois not equal to table size.");
+		}
+		
+		for( int ii = indices.length-1; ii > 0; ii--) {
+			if (indices[ii] <= indices[ii-1]) {
+				System.out.println("Indices must be in ascending order.");
+				return false;
 			}
 		}
 		
-		if(index == -1) {
-			System.out.println("Error: the given roi is not found.");
-			return false;
+		if(indices.length > 0) {
+			removeIndices(indices);
 		}
+		return true;
+	}
+	
+	
+	/**
+	 * Removes the rois at the given indices and everything kept per roi in one pass: the arrays are 
+	 * compacted once however many rois go, and clump indices are moved down past the removed rois.
+	 * @param indices : indices to remove, in ascending order.
+	 */
+	private void removeIndices(int[] indices) {
 		
+		// newIndex[ii] is where roi ii ends up, -1 if it's removed.
+		int[] newIndex = new int[rois.length];
+		for(int index : indices) {
+			newIndex[index] = -1;
+		}
+		int c = 0;
+		for(int ii = 0; ii < rois.length; ii++) {
+			if(newIndex[ii] != -1) {
+				newIndex[ii] = c++;
+			}
+		}
 		
 		if( noduleClumps != null) {
 			
-			for( NoduleClump clump : noduleClumps) {
-				if(clump.index == index) {
-					this.numNodules -= clump.numNodules;
-					isClump = true;
-					removeClump(index);
-					break;
-				}
-			}
-			
-			if(!isClump) {
-				this.numNodules--;
+			for(int index : indices) {
+				NoduleClump clump = getClump(index);
+				this.numNodules -= clump == null ? 1 : clump.numNodules;
 			}
 			
+			NoduleClump[] kept = new NoduleClump[noduleClumps.length];
+			int k = 0;
 			for( NoduleClump clump : noduleClumps) {
-				if( clump.index > index) {
-				clump.index -=1;
+				if(newIndex[clump.index] != -1) {
+					clump.index = newIndex[clump.index];
+					kept[k++] = clump;
 				}
 			}
-		
+			this.noduleClumps = Arrays.copyOf(kept, k);
+			this.clumpIndices = null;
 		}
 		
-		ShapeRoi[] newrois = new ShapeRoi[rois.length-1];
+		ShapeRoi[] oldrois = rois;
+		ShapeRoi[] newrois = new ShapeRoi[c];
+		double[] newcirc = circularity == null ? null : new double[c];
 		
-		double[] newcirc = new double[rois.length-1];
-		
-		int c = 0;
-		
-		for (int ii = 0; ii < rois.length; ii++) {
-			if(ii == index && index == rois.length-1) {
-				break;
+		for (int ii = 0; ii < oldrois.length; ii++) {
+			if(newIndex[ii] == -1) {
+				continue;
 			}
-			if(ii == index) {
-				ii++;
+			newrois[newIndex[ii]] = oldrois[ii];
+			if(newcirc != null) {
+				newcirc[newIndex[ii]] = circularity[ii];
 			}
-			newrois[c] = rois[ii];
-			
-			c++; // teehee
 		}
 		
 		this.rois = newrois;
+		this.roiIndices = null;
 		if(circularity != null) {
 			this.circularity = newcirc;
 		}
-		updateMap();
-		int[] indices = {index};
+		RunLengthRoi[] removed = new RunLengthRoi[indices.length];
+		for(int ii = 0; ii < indices.length; ii++) {
+			removed[ii] = forget(oldrois[indices[ii]]);
+		}
+		updateMap(removed, new Roi[0]);
 		
 		if( this.table != null) {
-			removeTableData(indices);
+			table.deleteRows(indices);
 		}
 		if( this.areas != null) {
 			removeAreas(indices);
 		}
-		updatePixels();
-		return true;
-	}//=====================
-	
-
-	/**
-	 * removes the data for the given indices.
-	 */	
-	public void removeArrayOfRois(int[] indices) {
-		
-		
-		if(rois.length != table.size()) {
-			throw new IllegalStateException("# of rois not equal to table size.");
-		}
-		
-		for( int ii = indices.length-1; ii > 0; ii--) {
-			if (indices[ii] < indices[ii-1]) {
-				System.out.println("Indices must be in ascending order.");
-				return;
-			}
-		}
-		
-		// remove in descending order to not mess up indices of rois[].
-		for (int ii = indices.length-1; ii >=0; ii--) {
-			int index = indices[ii];
-			this.removeRoi(rois[index]);
-		}
-		if(this.noduleClumps == null) {
-			return;
-		}
-		
-		if(this.getClump(indices[0]) != null) {
-			
-		}
-		
 	}
 	
 	
@@ -413,23 +470,24 @@ public class ColorData {
 	
 	
 	
-	/** Removes elements from table array.
-	 * @param indices : array of indices to be removed from table.*/
-	private void removeTableData(int[] indices) {
-		
-		for(int ii = indices.length-1; ii >=0; ii--) {
-			int index = indices[ii];
-			table.deleteRow(index);
-		}//for
+/**
+ * Sets or updates the segmentation map.	
+ * @param map : map of the whole image, shared by all nodule types.
+ */
+	public void setMap(PixelClassMap map) {
+		this.map = map;
 	}
 	
-
+	
 /**
- * Sets or updates the binary map.	
- * @param map
+ * Returns the class of this nodule type on the segmentation map.
+ * @return : PixelClassifier.RED, GREEN or MIXED.
  */
-	public void setMap(ImagePlus map) {
-		this.map = map;
+	byte getPixelClass() {
+		if(this.COLOR[0] != 0 && this.COLOR[1] != 0) {
+			return PixelClassifier.MIXED;
+		}
+		return this.COLOR[0] != 0 ? PixelClassifier.RED : PixelClassifier.GREEN;
 	}
 	
 
@@ -444,31 +502,33 @@ public class ColorData {
 
 
 	/**
-	 * Returns the binary map for this ColorData object.
+	 * Renders the map of this ColorData object: its nodule pixels in its color on black.
 	 * @return
 	 */
 	public ImagePlus getMap() {
-		return map;
+		if(map == null) {
+			return null;
+		}
+		String[] names = {"", "_red", "_green", "_mixed"};
+		return new ImagePlus(image.getTitle() + names[getPixelClass()], map.render(getPixelClass(), COLOR));
 	}
 	
 
 /**
- * Sets the ImageJ ResultsTable object. It's best practice
- * to not have more than oen of these objects at a time.	
- * @param table
+ * Returns the measurements of every roi, one row per roi.
+ * @return
  */
-	public void setTable(ResultsTable table) {
-		this.table = table;
-		
+	public ComponentMeasurements getMeasurements() {
+		return this.table;
 	}
 	
 
 /**
- * Returns the given ResultsTable 	
+ * Returns the measurements as an ImageJ ResultsTable, for showing or saving.
  * @return
  */
 	public ResultsTable getTable() {
-		return this.table;
+		return this.table.toResultsTable();
 	}
 	
 
@@ -486,6 +546,9 @@ public class ColorData {
  * @return
  */
 	public int[] getPixels() {
+		if(this.pixels == null && this.map != null) {
+			this.pixels = map.indices(getPixelClass());
+		}
 		return this.pixels;
 	}
 	
@@ -503,7 +566,7 @@ public class ColorData {
 			return;
 		}
 		
-		ImagePlus annotatedMap = new ImagePlus("annotated", map.getProcessor().getBufferedImage());
+		ImagePlus annotatedMap = new ImagePlus("annotated", getMap().getProcessor().getBufferedImage());
 		Overlay overlay = new Overlay();
     	overlay.clear();
     	
@@ -596,59 +659,31 @@ public class ColorData {
 	 * measures the areas of the rois, removing ones with too small of an 
 	 * area, counting them as noise. 
 	 * 
-	 * TODO: rewrite this to not pop up any windows during computation.
+	 * Holes inside nodules are filled while labeling, so the rois and their 
+	 * measurements are final after this one pass. Nothing here is displayed or 
+	 * registered with the RoiManager, so several images can be measured at once 
+	 * on different threads. All rois are measured together in one pass over the 
+	 * labeled map, see {@link ComponentMeasurements}.
 	 */
 	private void measure() {
-		if(WindowManager.getWindow("New Results") != null) {
-			WindowManager.getWindow("New Results").dispose();
-		}
-		
-		manager.setEnabled(true);
-		manager.reset();
 		
 		rois = null;
-		table = new ResultsTable();
-		ImagePlus binaryMap = convertToBinary(); // intensive
-		
-		binaryMap.show();
-		binaryMap.getProcessor().setAutoThreshold("Default"); //intensive
-		Roi roi = ThresholdToSelection.run(binaryMap);        // outline all nodules as one ROI.
-		
-		
-		IJ.run("Set Measurements...", "area area_fraction circularity stack add redirect=None decimal=3");
-		
-		Analyzer analyzer = new Analyzer(binaryMap, measurements, table);
-		
-		if( roi == null) {
-			System.out.println("No ROI found.");
+		table = new ComponentMeasurements(0);
+		if (map == null) {
+			System.out.println("Error: must have map in memory.");
 			return;
 		}
 		
-		manager.add(map,roi,0);  
+		ComponentLabeler nodules = ComponentLabeler.label(map.mask(getPixelClass()), 
+				map.getWidth(), map.getHeight(), true, map.getLabels());
+		fillHoles(nodules.fillHoles());
 		
-		
-		if (manager.getRoisAsArray() == null) {
-			System.out.println("No ROI's found for this color");
-			return;
-		}
-		if( manager.getRoi(0) == null) {
-			System.out.println("No ROI's found for this color");
+		if( nodules.getCount() == 0) {
+			System.out.println("No ROI found.");
 			return;
 		}
 		
-		manager.select(0);	 // select all nodules as one ROI
-		
-		
-		if(manager.getRoi(0).getType()== Roi.COMPOSITE) {
-			manager.runCommand("split"); 
-			int[] temp = {0};			 // selecting roi[0], which is all nodules as one roi.
-			manager.setSelectedIndexes(temp);
-			manager.runCommand("delete");// deleting that ^^^^
-		}
-		
-		Roi[] tempRois = manager.getRoisAsArray();     // getting all roi's in array
-		ShapeRoi[] rois = new ShapeRoi[tempRois.length];
-		int ij = 0;
+		ShapeRoi[] rois = new ShapeRoi[nodules.getCount()];
 		String color= null;
 		
 		if(this.COLOR[0] != 0) {
@@ -662,32 +697,30 @@ public class ColorData {
 		}
 		
 		
-		for(Roi troi : tempRois) {
-			rois[ij] = new ShapeRoi(troi);
+		rasters.clear();
+		for(int ij = 0; ij < rois.length; ij++) {
+			rois[ij] = nodules.getRoi(ij + 1);
 			rois[ij].setName(color + " " + ij);
-			ij++;
+			rasters.put(rois[ij], nodules.getRuns(ij + 1));
 		}
 		
 		this.rois = rois;
+		this.roiIndices = null;
 		
 		
-		for (int ii = 0; ii < rois.length; ii++) {
-			manager.select(ii);
-			analyzer.measure(); 	 
-		}
-		
+		this.table = ComponentMeasurements.measure(nodules, rois); // same row order as the rois.
 		
-		binaryMap.close();
 		
 	}
 	
 	
 	
+	
+	
+	
 	/**
 	 * Method that generates the ResultsTable, ROI's, int[] areas, and numNodules.<br>
-	 * Finds all ROIs using the measure method.<br>
-	 * Finds any rois with large enough measure, and fills them in. <br>
-	 * measures again to account for filled in holes. <br>
+	 * Finds all ROIs, with their holes filled in, using the measure method.<br>
 	 * removes noise from dataset <br>
 	 * splits mixed nodules <br>
 	 * 
@@ -697,43 +730,35 @@ public class ColorData {
 		//IJ IJ = new IJ();
 		
 		
-		if (this.map.getProcessor() == null) {
+		if (this.map == null) {
 			System.out.println("Error: no map found. Generate a map first.");
 			return;
 		}
 		
-		/**
-		 * for all RoiManager things, 
-		 * ij.plugin.frame.RoiManager  line 211
-		 * 
-		 * 
-		 */
 		measure();
 		
-		if(manager.getRoi(0) == null || manager.getRoisAsArray() == null) {
+		if(this.rois == null || this.rois.length == 0) {
 			System.out.println("No Roi's found. Returning empty dataset.");
 			int[][]temp = new int[1][2];
 			temp[0][0] = 0;
 			temp[0][1] = 0;
 			this.areas = temp;
-			this.table.addRow();
-			this.table.addValue(0, 0);
-			this.table.addValue(1, 0);
+			this.table = new ComponentMeasurements(1);
 			this.rois = new ShapeRoi[0];
 			return;
 		}
 		
-		fillNoduleHoles();
-
-		measure();
-		
-		this.table.show("New Results");       // ResultsTable results contains all measurements.
+		if(!headless) {
+			synchronized(UserEditsHandler.REVIEW_LOCK) { // workers of other images show the same window.
+				this.table.toResultsTable().show("New Results");       // ResultsTable results contains all measurements.
+			}
+		}
 		
 		this.areas = new int[table.size()][2];
 		
 		for( int ii = 0; ii < table.size(); ii++) {
 			this.areas[ii][0] = 1;
-			this.areas[ii][1] = (int) table.getValueAsDouble(0, ii);
+			this.areas[ii][1] = (int) table.getArea(ii);
 		}
 		
 		cleanData(); 
@@ -748,17 +773,11 @@ public class ColorData {
 		for( int ii = 0; ii < areas.length; ii++) {
 			numNodules += areas[ii][0];
 		}
-		manager.reset();
 		
 		
 		this.numNodules = numNodules;
 	}//==================================================================================================================
 	
-	// resultsheading(24) == %Area
-	// resultsheading(0) == Area
-	// resultsheading(18) == circularity
-	// ij.Measure.ResultsTable
-
 	
 	// ====================================
 /**
@@ -779,7 +798,7 @@ public class ColorData {
 		for (int ii = 0; ii <table.size(); ii++) {
 			
 			try {
-			int area = Integer.parseInt(table.getStringValue(0, ii));
+			int area = (int) table.getArea(ii);
 		
 			if ( area < LOWAREATHRESHOLD ) {
 				delete.add(ii);
@@ -794,8 +813,6 @@ public class ColorData {
 		this.removeArrayOfRois(roisToDelete);
 		
 		System.out.println("number of noisy ROI's: " + roisToDelete.length);
-		manager.setSelectedIndexes(roisToDelete);
-		manager.runCommand("delete");
 	
 	}//=========================================
 
@@ -806,7 +823,7 @@ public class ColorData {
 	private void fillCircularity() {
 		this.circularity = new double[rois.length];
 		for(int ii = 0; ii < rois.length; ii++) {
-			circularity[ii] =  table.getValueAsDouble(18, ii);;
+			circularity[ii] =  table.getCircularity(ii);;
 		}
 	}//===============================
 	
@@ -814,15 +831,16 @@ public class ColorData {
 	
 	/**Uses aspect ratio and area to locate and remove fluoresced roots caught in initial segmentation*/
 	public void removeRoots() {
+		ImagePlus map = getMap();
 		map.show();
 		for( int ii = 0; ii < rois.length; ii++) {
 			EllipseFitter ellipse = new EllipseFitter();
-			this.map.setRoi(rois[ii]);
+			map.setRoi(rois[ii]);
 			ellipse.fit(map.getProcessor(), null);
 			double ratio = ellipse.major / ellipse.minor;
-			if(rois[ii].getContainedPoints().length > 600) {
+			if(getRaster(rois[ii]).getArea() > 600) {
 				System.out.println(ii + ": "  + calculateAspectRatio(rois[ii].getPolygon())
-				+ ", " + table.getValueAsDouble(18, ii) + ", " + ratio);
+				+ ", " + table.getCircularity(ii) + ", " + ratio);
 			}
 		}
 	}
@@ -860,97 +878,44 @@ public class ColorData {
  */
 	void updateMap() {
 		
-		ColorProcessor cp = new ColorProcessor(map.getWidth(), map.getHeight());
-		cp.setColor(Color.black);
-		cp.fill();
+		map.clear(getPixelClass());
 		
 		for( Roi roi : rois) {
-			
-			Point[] pix = roi.getContainedPoints();
-			
-			for(Point pixel : pix) {
-				
-				cp.putPixel(pixel.x, pixel.y, COLOR);
-			}
+			map.add(getRaster(roi), getPixelClass());
 		}
-		this.map = new ImagePlus(map.getTitle(), cp);
-		
-		
-		
+		this.pixels = null;
 	}
 	
 	
 	
 /**
- * Finds ROI's that are white space within true nodule ROI's, and merges the two.
+ * Adds the filled in holes to the map and to the pixels of this type.
+ * @param holes : the holes filled by {@link ComponentLabeler#fillHoles()}.
  */
-	void fillNoduleHoles() {
-		ArrayList<Integer> fakeNodules = new ArrayList<>();
+	private void fillHoles(ComponentLabeler holes) {
 		
-		
-		if(this.rois == null) {
+		if(holes.getCount() == 0) {
 			return;
 		}
-		if (rois.length != table.size()) {
-			System.out.println("ERROR: size mismatch between table data and # of ROIS");
-			
-		}
-		
-		int ii = -1;
-		while(ii++ < rois.length-1) {
-			double percentArea = table.getValueAsDouble(24, ii);
-		
-			if(percentArea < 50) {// value table 25 is %area :: ij.Measure.ResultsTable
-				fakeNodules.add(ii);
-			}
-		}
-		
-		int[] roiContainers = new int[fakeNodules.size()];
-		Arrays.fill(roiContainers, -1);
-		ii = 0;
 		
-		while(ii++ < fakeNodules.size()-1) {
-			Roi roi0 = getRoi(fakeNodules.get(ii));
-			Area area0 = new Area(roi0.getPolygon());
-			for(Roi roi2 : rois) {
-				Area area2 = new Area(roi2.getPolygon());
-				area0.intersect(area2);
-				if (!area0.isEmpty()) {
-					roiContainers[ii] = getIndex(roi2);
-				}
-				area0 = new Area(roi0.getPolygon());
-			}
-			
-			if(roiContainers[ii] == -1) {
-				System.out.println("Error: container not found for given white space ROI.");
-			}
+		int size = 0;
+		for(int ii = 1; ii <= holes.getCount(); ii++) {
+			size += holes.getArea(ii);
 		}
 		
+		int[] hole = holes.getLabels();
+		int[] pixels = getPixels();
+		int[] newpixels = Arrays.copyOf(pixels, pixels.length + size);
+		int cc = pixels.length;
 		
-		ColorProcessor cp = map.getProcessor().convertToColorProcessor();
-		
-		// copying int[] pixels into newpixels
-		ArrayList<Integer> newpixels = new ArrayList<>(Arrays.asList(Arrays.stream(pixels).boxed().toArray(Integer[]::new)));
-		
-		
-		ii = 0;
-		while ( ii++ < fakeNodules.size()-1) {
-			Roi roi = getRoi(fakeNodules.get(ii));
-			Point[] points = roi.getContainedPoints();
-			
-			for( Point point : points) {
-				if(point.x ==0 && point.y == 0) {
-					System.out.println("Error: point not found.");
-				}
-				else {
-					cp.putPixel(point.x, point.y, COLOR);
-					newpixels.add(point.y*map.getWidth() + point.x);
-				}
+		for(int ii = 0; ii < hole.length; ii++) {
+			if(hole[ii] != 0) {
+				map.add(ii, getPixelClass());
+				newpixels[cc++] = ii;
 			}
 		}
 		
-		this.pixels = newpixels.stream().mapToInt(Integer::intValue).toArray();
-		map = new ImagePlus(map.getTitle(), cp);
+		this.pixels = newpixels;
 	}
 	
 	
@@ -971,7 +936,7 @@ public class ColorData {
 		
 		String save = dir + name;
 		
-		table.save(save);
+		table.toResultsTable().save(save);
 	}
 	
 	
@@ -980,29 +945,11 @@ public class ColorData {
  *converts map to binary map.
  */
 	public ImagePlus convertToBinary() {
-		if (map == null || pixels == null) {
-			System.out.println("Error: must have map and pixels in memory. returning null");
+		if (map == null) {
+			System.out.println("Error: must have map in memory. returning null");
 			return null;
 		}
-		int width = map.getWidth();
-		int height = map.getHeight();
-		ByteProcessor pc = new ByteProcessor(map.getWidth(), map.getHeight());
-		
-		for (int ii = 0; ii < height; ++ii) {
-			for ( int jj = 0; jj < width; ++jj) {
-				pc.putPixel(jj, ii, 255);
-			}
-		}
-		
-		
-		for (int pix : pixels) {
-			int x = pix % width;
-			int y = (pix - x) / width;
-			pc.putPixel(x, y, 0);
-		}
-		
-		ImagePlus output = new ImagePlus("binary", pc);
-		return output;
+		return map.binary(getPixelClass());
 	}
 	
 
@@ -1030,9 +977,9 @@ public class ColorData {
 		
 		for( int ii = 0; ii < rois.length; ii++) {
 			// column 18 is circularity
-			double circularity = table.getValueAsDouble(18, ii);
+			double circularity = table.getCircularity(ii);
 			
-			if ((circularity > WEAKCIRCTHRESHOLD && table.getValueAsDouble(0, ii) < HIGHAREATHRESHOLD) || circularity > STRONGCIRCTHRESHOLD) {
+			if ((circularity > WEAKCIRCTHRESHOLD && table.getArea(ii) < HIGHAREATHRESHOLD) || circularity > STRONGCIRCTHRESHOLD) {
 				contestants.add(ii);
 			}
 		}
@@ -1063,7 +1010,7 @@ public class ColorData {
 		System.out.println("# of singular nodules: " + singleNodulesIndices.length);
 		
 		for( int index : singleNodulesIndices) {
-			area += table.getValueAsDouble(0, index);
+			area += table.getArea(index);
 		}
 		area = area / singleNodulesIndices.length;
 		System.out.println("average area of singular nodules: " + area);
@@ -1090,7 +1037,7 @@ public class ColorData {
 		double stdev=0;
 		
 		for ( int index : singleNodulesIndices) {
-			double area = table.getValueAsDouble(0, index);
+			double area = table.getArea(index);
 			
 			stdev += ((average - area) * (average - area));
 		}
@@ -1123,7 +1070,7 @@ public class ColorData {
 				if (ii == singleNodulesIndices[jj]) {
 					break;
 				}
-				if(jj == singleNodulesIndices.length-1 && table.getValueAsDouble(0, ii)> HIGHAREATHRESHOLD) {
+				if(jj == singleNodulesIndices.length-1 && table.getArea(ii)> HIGHAREATHRESHOLD) {
 					indices.add(ii);
 				}
 			}
@@ -1132,7 +1079,7 @@ public class ColorData {
 		System.out.println("indices: # of nodules: area/nodule");
 		
 		for(int index : indices) {
-			double area = table.getValueAsDouble(0, index);
+			double area = table.getArea(index);
 			double nods = area / avg - 1;
 			
 			if(nods < 2) {
@@ -1143,7 +1090,9 @@ public class ColorData {
 			}
 			
 			System.out.println(index  + ": " + nods + ": " + (area/nods));
-			split.add(new NoduleClump(index, getRoi(index),(area/nods),(int) nods, this.image));
+			NoduleClump clump = new NoduleClump(index, getRoi(index),(area/nods),(int) nods, this.image);
+			clump.setHeadless(headless);
+			split.add(clump);
 		}
 		
 		NoduleClump[] splits = new NoduleClump[split.size()];
@@ -1153,6 +1102,7 @@ public class ColorData {
 		}
 		
 		this.noduleClumps = splits;
+		this.clumpIndices = null;
 	}
 	
 	
@@ -1166,12 +1116,12 @@ public class ColorData {
 		
 		for(int ii = 0; ii < rois.length; ii++) {
 			
-			int area = this.getRoi(ii).getContainedPoints().length;
-			int index = isSplit(ii);
+			int area = getRaster(this.getRoi(ii)).getArea();
+			NoduleClump clump = getClump(ii);
 			
-			if (index != -1) {	
-				newareas[ii][0] = noduleClumps[index].numNodules;
-				newareas[ii][1] = (int) noduleClumps[index].area;
+			if (clump != null) {	
+				newareas[ii][0] = clump.numNodules;
+				newareas[ii][1] = (int) clump.area;
 			}	
 			else {
 				newareas[ii][0] = 1;
@@ -1185,50 +1135,103 @@ public class ColorData {
 	
 	
 	
-	// rounding .7 and below down, rest up.
-	int roundDown(double num) {
+	/**
+	 * Writes this nodule type to a bundle: its color and area threshold, then its rois, areas,
+	 * circularities, clumps and measurements. See {@link SegmentationBundle}.
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		for(int cc = 0; cc < 3; cc++) {
+			out.writeInt(COLOR[cc]);
+		}
+		out.writeDouble(HIGHAREATHRESHOLD);
+		out.writeInt(numNodules);
 		
-		int truncated = (int) (Math.floor(num * 10) % 10);
+		int n = rois == null ? -1 : rois.length;
+		out.writeInt(n);
+		for(int ii = 0; ii < n; ii++) {
+			SegmentationBundle.writeRoi(out, rois[ii]);
+			out.writeInt(areas[ii][0]);
+			out.writeInt(areas[ii][1]);
+		}
 		
-		if ( truncated < 8 ) {
-			return (int) num;
+		out.writeInt(circularity == null ? -1 : circularity.length);
+		if(circularity != null) {
+			for(double value : circularity) {
+				out.writeDouble(value);
+			}
 		}
-		else {
-			return (int) Math.round(num);
+		
+		out.writeInt(noduleClumps == null ? -1 : noduleClumps.length);
+		if(noduleClumps != null) {
+			for(NoduleClump clump : noduleClumps) {
+				out.writeInt(clump.index);
+				SegmentationBundle.writeRoi(out, clump.roi);
+				out.writeDouble(clump.area);
+				out.writeInt(clump.numNodules);
+				out.writeBoolean(clump.hasMixed);
+			}
 		}
 		
-	}//=========================================
-	
+		table.writeTo(out);
+	}
 	
 	
-//  =================================
 	/**
-	 * returns index if given nodule index is split, -1 otherwise.
+	 * Reads what {@link #writeTo} wrote after the color and area threshold, which the bundle 
+	 * reads first to make this object.
 	 */
-	private int isSplit(int ii) {
-		if(noduleClumps == null) {
-			return -1;
-		}
-		int[] splitIndices = new int[noduleClumps.length];
+	void readFrom(DataInputStream in) throws IOException {
+		this.numNodules = in.readInt();
+		
+		int n = in.readInt();
+		ShapeRoi[] rois = n < 0 ? null : new ShapeRoi[n];
+		this.areas = n < 0 ? null : new int[n][2];
+		for(int ii = 0; ii < n; ii++) {
+			rois[ii] = SegmentationBundle.readRoi(in);
+			areas[ii][0] = in.readInt();
+			areas[ii][1] = in.readInt();
+		}
+		setRois(rois);
+		
+		int c = in.readInt();
+		this.circularity = c < 0 ? null : new double[c];
+		for(int ii = 0; ii < c; ii++) {
+			circularity[ii] = in.readDouble();
+		}
+		
+		int clumps = in.readInt();
+		this.noduleClumps = clumps < 0 ? null : new NoduleClump[clumps];
+		for(int ii = 0; ii < clumps; ii++) {
+			NoduleClump clump = new NoduleClump();
+			clump.index = in.readInt();
+			clump.roi = SegmentationBundle.readRoi(in);
+			clump.area = in.readDouble();
+			clump.numNodules = in.readInt();
+			clump.hasMixed = in.readBoolean();
+			clump.setHeadless(headless);
+			noduleClumps[ii] = clump;
+		}
+		this.clumpIndices = null;
+		
+		this.table = ComponentMeasurements.readFrom(in);
+		this.pixels = null;
+	}
+	
+	
 	
-		int cc = 0;
+	// rounding .7 and below down, rest up.
+	int roundDown(double num) {
 		
-		for ( NoduleClump clump : noduleClumps) {
-			splitIndices[cc] = clump.index;
-			//System.out.println(cc + ": " + clump.index);
-			cc++;
-		}
+		int truncated = (int) (Math.floor(num * 10) % 10);
 		
-		for (int kk = 0; kk < splitIndices.length;kk++) {
-			int index = splitIndices[kk];
-			if (ii == index) {
-				return kk;
-			}
-			
+		if ( truncated < 8 ) {
+			return (int) num;
 		}
-		return -1;
-	}//==============================
-
+		else {
+			return (int) Math.round(num);
+		}
+		
+	}//=========================================
 	
 	
 	
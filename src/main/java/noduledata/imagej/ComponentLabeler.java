@@ -0,0 +1,741 @@
+package noduledata.imagej;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import ij.gui.Roi;
+import ij.gui.ShapeRoi;
+import ij.plugin.filter.ThresholdToSelection;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+
+/**
+ * Connected component labeling of a binary mask. Replaces outlining the whole map with
+ * ThresholdToSelection and splitting the outline with the RoiManager: nothing is shown, so any
+ * number of masks can be labeled at once on different threads.<br>
+ *
+ * Labeling is the classic two-pass union-find algorithm. The mask is cut into strips of rows that
+ * are labeled in parallel, then the labels that touch across strip borders are merged. Labels are
+ * numbered 1 to {@link #getCount()} in the order their first pixel appears in the image, 0 is
+ * background. Bounding boxes and pixel counts are collected while labeling; ShapeRois are only
+ * traced when asked for with {@link #getRoi(int)}.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class ComponentLabeler {
+
+	private static final int MIN_STRIP_HEIGHT = 64;
+
+	private final int width;
+	private final int height;
+	private final int[] labels;
+	private boolean eightConnected;
+
+	private int count;
+	private int[] area;    // all per label arrays are indexed by label, index 0 is unused.
+	private int[] first;   // index of the first pixel of the label in raster order.
+	private int[] minX;
+	private int[] minY;
+	private int[] maxX;
+	private int[] maxY;
+
+
+	private ComponentLabeler(int width, int height) {
+		this(width, height, new int[width * height]);
+	}
+
+
+	private ComponentLabeler(int width, int height, int[] labels) {
+		this.width = width;
+		this.height = height;
+		this.labels = labels;
+	}
+
+
+	/**
+	 * Labels the connected foreground pixels of the given mask.
+	 *
+	 * @param mask : one value per pixel, anything but 0 ==> foreground.
+	 * @param width : width of the mask.
+	 * @param height : height of the mask.
+	 * @param eightConnected : true if diagonal neighbors are connected, false for only horizontal and vertical ones.
+	 * @return : the labeled mask.
+	 */
+	public static ComponentLabeler label(byte[] mask, int width, int height, boolean eightConnected) {
+		return label(mask, width, height, eightConnected, new int[width * height]);
+	}
+
+
+	/**
+	 * Labels the connected foreground pixels of the given mask into an existing label array,
+	 * e.g. the companion map of a {@link PixelClassMap}. The array is cleared first.
+	 *
+	 * @param mask : one value per pixel, anything but 0 ==> foreground.
+	 * @param width : width of the mask.
+	 * @param height : height of the mask.
+	 * @param eightConnected : true if diagonal neighbors are connected, false for only horizontal and vertical ones.
+	 * @param labels : one int per pixel to write the labels to.
+	 * @return : the labeled mask.
+	 */
+	public static ComponentLabeler label(byte[] mask, int width, int height, boolean eightConnected, int[] labels) {
+		if(mask.length != width * height || labels.length != mask.length) {
+			throw new IllegalArgumentException("Mask size " + mask.length + " does not match " + width + "x" + height + ".");
+		}
+
+		Arrays.fill(labels, 0);
+		ComponentLabeler labeler = new ComponentLabeler(width, height, labels);
+		labeler.eightConnected = eightConnected;
+		int strips = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / MIN_STRIP_HEIGHT));
+		int stripHeight = Math.max(1, (height + strips - 1) / strips);
+		strips = height == 0 ? 0 : (height + stripHeight - 1) / stripHeight;
+
+		Strip[] parts = new Strip[strips];
+		for(int ii = 0; ii < strips; ii++) {
+			parts[ii] = new Strip(ii * stripHeight, Math.min(height, (ii + 1) * stripHeight));
+		}
+
+		// first pass: provisional labels within each strip.
+		IntStream.range(0, strips).parallel().forEach(ii -> parts[ii].label(mask, labeler.labels, width, eightConnected));
+
+		// merge labels across strip borders.
+		int total = 0;
+		for(Strip strip : parts) {
+			strip.offset = total;
+			total += strip.roots;
+		}
+
+		UnionFind merged = new UnionFind(total + 1);
+		for(int ii = 1; ii < strips; ii++) {
+			labeler.mergeBorder(parts[ii - 1], parts[ii], merged, eightConnected);
+		}
+
+		// final labels, numbered in raster order.
+		int[] finalLabel = new int[total + 1];
+		int labelCount = 0;
+		for(Strip strip : parts) {
+			for(int local = 1; local < strip.localToRoot.length; local++) {
+				int root = strip.localToRoot[local];
+				if(root == 0) {
+					continue;
+				}
+				int global = merged.find(strip.offset + root);
+				if(finalLabel[global] == 0) {
+					finalLabel[global] = ++labelCount;
+				}
+			}
+		}
+		int count = labelCount;
+		labeler.count = count;
+
+		// second pass: write the final labels and collect the statistics of each strip.
+		IntStream.range(0, strips).parallel().forEach(ii -> parts[ii].relabel(labeler.labels, width, count, merged, finalLabel));
+
+		labeler.combine(parts);
+		return labeler;
+	}
+
+
+	/**
+	 * Returns a mask of the dark pixels of a binary map, the pixels a Default auto threshold
+	 * selects: those darker than halfway between the darkest and brightest pixel.
+	 *
+	 * @param map : binary map, nodules dark on a light background.
+	 * @return : one value per pixel, 1 for foreground and 0 for background.
+	 */
+	public static byte[] foreground(ImageProcessor map) {
+		int size = map.getWidth() * map.getHeight();
+		float min = Float.MAX_VALUE;
+		float max = -Float.MAX_VALUE;
+
+		for(int ii = 0; ii < size; ii++) {
+			float value = map.getf(ii);
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+
+		byte[] mask = new byte[size];
+		if(min == max) {
+			return mask;
+		}
+
+		float cutoff = (min + max) / 2;
+		for(int ii = 0; ii < size; ii++) {
+			if(map.getf(ii) < cutoff) {
+				mask[ii] = 1;
+			}
+		}
+		return mask;
+	}
+
+
+	/**
+	 * Labels the holes of this labeling: background regions, connected horizontally and
+	 * vertically, that don't touch the edge of the image. A hole always lies inside the bounding
+	 * box of the component around it, so only the background inside bounding boxes is searched.
+	 * Holes are numbered in the order they're found, not in raster order.
+	 *
+	 * @return : the labeled holes.
+	 */
+	public ComponentLabeler holes() {
+		ComponentLabeler holes = new ComponentLabeler(width, height);
+		int[] hole = holes.labels;
+		holes.allocate(0);
+
+		int[] region = new int[64];
+
+		for(int label = 1; label <= count; label++) {
+			int x0 = minX[label];
+			int y0 = minY[label];
+			int x1 = maxX[label];
+			int y1 = maxY[label];
+			int visited = -label; // background seen while searching this box.
+
+			for(int y = y0 + 1; y < y1; y++) {
+				for(int x = x0 + 1; x < x1; x++) {
+					int start = y * width + x;
+					if(labels[start] != 0 || hole[start] > 0 || hole[start] == visited) {
+						continue;
+					}
+
+					// flood the background region, within this box.
+					int size = 0;
+					int top = 0;
+					boolean enclosed = true;
+					hole[start] = visited;
+					region[size++] = start;
+
+					while(top < size) {
+						int index = region[top++];
+						int px = index % width;
+						int py = index / width;
+						if(px == x0 || px == x1 || py == y0 || py == y1) {
+							enclosed = false;
+						}
+						if(size + 4 > region.length) {
+							region = Arrays.copyOf(region, region.length * 2);
+						}
+						if(px > x0) size = visit(hole, region, size, index - 1, visited);
+						if(px < x1) size = visit(hole, region, size, index + 1, visited);
+						if(py > y0) size = visit(hole, region, size, index - width, visited);
+						if(py < y1) size = visit(hole, region, size, index + width, visited);
+					}
+
+					if(enclosed) {
+						holes.add(region, size);
+					}
+				}
+			}
+		}
+
+		for(int ii = 0; ii < hole.length; ii++) {
+			if(hole[ii] < 0) {
+				hole[ii] = 0;
+			}
+		}
+		return holes;
+	}
+
+
+	/**
+	 * Fills the holes of every component: hole pixels join the component around them, and so does
+	 * any component inside a hole, the same as labeling the mask again with its holes filled in.
+	 * Labels stay numbered in raster order.
+	 *
+	 * @return : the holes that were filled, see {@link #holes()}.
+	 */
+	public ComponentLabeler fillHoles() {
+		ComponentLabeler holes = holes();
+		if(holes.count == 0) {
+			return holes;
+		}
+		int[] hole = holes.labels;
+
+		// every component touching a hole merges with the component around it. Holes never touch
+		// the edge of the image, so their neighbors are always inside it.
+		int reach = eightConnected ? 1 : 0;
+		UnionFind merged = new UnionFind(count + 1);
+		int[] owners = new int[holes.count + 1];
+		for(int h = 1; h <= holes.count; h++) {
+			int owner = labels[holes.first[h] - width];
+			owners[h] = owner;
+			for(int y = holes.minY[h]; y <= holes.maxY[h]; y++) {
+				for(int x = holes.minX[h]; x <= holes.maxX[h]; x++) {
+					int index = y * width + x;
+					if(hole[index] != h) {
+						continue;
+					}
+					for(int dy = -1; dy <= 1; dy++) {
+						for(int dx = -1; dx <= 1; dx++) {
+							if(dx != 0 && dy != 0 && reach == 0) {
+								continue;
+							}
+							int neighbor = labels[index + dy * width + dx];
+							if(neighbor != 0 && neighbor != owner) {
+								merged.union(owner, neighbor);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		// the root of a group is its lowest label, which is the one with the first pixel.
+		int[] finalLabel = new int[count + 1];
+		int labelCount = 0;
+		for(int label = 1; label <= count; label++) {
+			int root = merged.find(label);
+			finalLabel[label] = root == label ? ++labelCount : finalLabel[root];
+		}
+
+		if(labelCount < count) {
+			IntStream.range(0, height).parallel().forEach(y -> {
+				for(int index = y * width; index < (y + 1) * width; index++) {
+					labels[index] = finalLabel[labels[index]];
+				}
+			});
+		}
+		for(int h = 1; h <= holes.count; h++) {
+			int owner = finalLabel[owners[h]];
+			for(int y = holes.minY[h]; y <= holes.maxY[h]; y++) {
+				for(int x = holes.minX[h]; x <= holes.maxX[h]; x++) {
+					int index = y * width + x;
+					if(hole[index] == h) {
+						labels[index] = owner;
+					}
+				}
+			}
+		}
+
+		// statistics of the merged groups. First pixels don't change: a hole starts below the
+		// component around it, and everything merged into a group starts after its root.
+		int[] oldArea = area;
+		int[] oldFirst = first;
+		int[] oldMinX = minX, oldMinY = minY, oldMaxX = maxX, oldMaxY = maxY;
+		int oldCount = count;
+		allocate(labelCount);
+		for(int label = 1; label <= oldCount; label++) {
+			int group = finalLabel[label];
+			if(area[group] == 0) {
+				first[group] = oldFirst[label];
+			}
+			area[group] += oldArea[label];
+			minX[group] = Math.min(minX[group], oldMinX[label]);
+			minY[group] = Math.min(minY[group], oldMinY[label]);
+			maxX[group] = Math.max(maxX[group], oldMaxX[label]);
+			maxY[group] = Math.max(maxY[group], oldMaxY[label]);
+		}
+		for(int h = 1; h <= holes.count; h++) {
+			area[finalLabel[owners[h]]] += holes.area[h];
+		}
+
+		return holes;
+	}
+
+
+	/**
+	 * Adds the pixel to the flooded region if it's background that hasn't been seen yet.
+	 */
+	private int visit(int[] hole, int[] region, int size, int index, int visited) {
+		if(labels[index] == 0 && hole[index] <= 0 && hole[index] != visited) {
+			hole[index] = visited;
+			region[size++] = index;
+		}
+		return size;
+	}
+
+
+	/**
+	 * Adds a new component made of the given pixels.
+	 */
+	private void add(int[] pixels, int size) {
+		int label = count + 1;
+		if(label >= area.length) {
+			int capacity = area.length * 2;
+			area = Arrays.copyOf(area, capacity);
+			first = Arrays.copyOf(first, capacity);
+			minX = Arrays.copyOf(minX, capacity);
+			minY = Arrays.copyOf(minY, capacity);
+			maxX = Arrays.copyOf(maxX, capacity);
+			maxY = Arrays.copyOf(maxY, capacity);
+		}
+		count = label;
+
+		int firstPixel = Integer.MAX_VALUE;
+		int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = -1, y1 = -1;
+		for(int ii = 0; ii < size; ii++) {
+			int index = pixels[ii];
+			int x = index % width;
+			int y = index / width;
+			labels[index] = label;
+			firstPixel = Math.min(firstPixel, index);
+			x0 = Math.min(x0, x);
+			y0 = Math.min(y0, y);
+			x1 = Math.max(x1, x);
+			y1 = Math.max(y1, y);
+		}
+		area[label] = size;
+		first[label] = firstPixel;
+		minX[label] = x0;
+		minY[label] = y0;
+		maxX[label] = x1;
+		maxY[label] = y1;
+	}
+
+
+	/** @return : the number of components found. */
+	public int getCount() {
+		return count;
+	}
+
+
+	/** @return : the label of every pixel, 0 for background. Not a copy. */
+	public int[] getLabels() {
+		return labels;
+	}
+
+
+	/** @return : the label of the given pixel, 0 for background. */
+	public int getLabel(int x, int y) {
+		return labels[y * width + x];
+	}
+
+
+	/** @return : the number of pixels in the given component. */
+	public int getArea(int label) {
+		return area[label];
+	}
+
+
+	/** @return : the index of the given component's first pixel in raster order. */
+	public int getFirstPixel(int label) {
+		return first[label];
+	}
+
+
+	/** @return : the bounding box of the given component. */
+	public Rectangle getBounds(int label) {
+		return new Rectangle(minX[label], minY[label], maxX[label] - minX[label] + 1, maxY[label] - minY[label] + 1);
+	}
+
+
+	public int getWidth() {
+		return width;
+	}
+
+
+	public int getHeight() {
+		return height;
+	}
+
+
+	/**
+	 * Traces the outline of the given component. Holes inside the component are part of the
+	 * returned selection, the same as the outer outline ThresholdToSelection gives.
+	 *
+	 * @param label : label of the component, 1 to {@link #getCount()}.
+	 * @return : outline of the component.
+	 */
+	public ShapeRoi getRoi(int label) {
+		Rectangle bounds = getBounds(label);
+		ByteProcessor crop = new ByteProcessor(bounds.width, bounds.height, crop(label, bounds));
+
+		crop.setThreshold(255, 255, ImageProcessor.NO_LUT_UPDATE);
+		Roi roi = new ThresholdToSelection().convert(crop);
+		Rectangle local = roi.getBounds();
+		roi.setLocation(bounds.x + local.x, bounds.y + local.y);
+
+		return new ShapeRoi(roi);
+	}
+
+
+	/**
+	 * Gives the pixels of the given component as runs, the same pixels as the roi
+	 * {@link #getRoi(int)} traces, without tracing anything.
+	 *
+	 * @param label : label of the component, 1 to {@link #getCount()}.
+	 * @return : the component's runs.
+	 */
+	public RunLengthRoi getRuns(int label) {
+		Rectangle bounds = getBounds(label);
+		return RunLengthRoi.fromMask(crop(label, bounds), bounds);
+	}
+
+
+	/**
+	 * Mask of the component inside its bounding box, holes filled.
+	 */
+	private byte[] crop(int label, Rectangle bounds) {
+		byte[] pixels = new byte[bounds.width * bounds.height];
+
+		for(int y = 0; y < bounds.height; y++) {
+			int offset = (bounds.y + y) * width + bounds.x;
+			for(int x = 0; x < bounds.width; x++) {
+				if(labels[offset + x] == label) {
+					pixels[y * bounds.width + x] = (byte) 255;
+				}
+			}
+		}
+		fillHoles(pixels, bounds.width, bounds.height);
+		return pixels;
+	}
+
+
+	/**
+	 * Traces the outline of every component.
+	 *
+	 * @return : one ShapeRoi per component, in label order.
+	 */
+	public ShapeRoi[] getRois() {
+		ShapeRoi[] rois = new ShapeRoi[count];
+		for(int label = 1; label <= count; label++) {
+			rois[label - 1] = getRoi(label);
+		}
+		return rois;
+	}
+
+
+	/**
+	 * Sets every 0 pixel of the mask that can't reach its edge through other 0 pixels to 255.
+	 */
+	private static void fillHoles(byte[] pixels, int width, int height) {
+		int[] stack = new int[pixels.length];
+		int top = 0;
+
+		// 1 marks background reachable from the edge.
+		for(int x = 0; x < width; x++) {
+			top = push(pixels, stack, top, x);
+			top = push(pixels, stack, top, (height - 1) * width + x);
+		}
+		for(int y = 0; y < height; y++) {
+			top = push(pixels, stack, top, y * width);
+			top = push(pixels, stack, top, y * width + width - 1);
+		}
+
+		while(top > 0) {
+			int index = stack[--top];
+			int x = index % width;
+			if(x > 0) top = push(pixels, stack, top, index - 1);
+			if(x < width - 1) top = push(pixels, stack, top, index + 1);
+			if(index >= width) top = push(pixels, stack, top, index - width);
+			if(index + width < pixels.length) top = push(pixels, stack, top, index + width);
+		}
+
+		for(int ii = 0; ii < pixels.length; ii++) {
+			pixels[ii] = pixels[ii] == 1 ? 0 : (byte) 255;
+		}
+	}
+
+
+	private static int push(byte[] pixels, int[] stack, int top, int index) {
+		if(pixels[index] == 0) {
+			pixels[index] = 1;
+			stack[top++] = index;
+		}
+		return top;
+	}
+
+
+	/**
+	 * Unions the labels of the last row of one strip with their neighbors on the first row of the next.
+	 */
+	private void mergeBorder(Strip above, Strip below, UnionFind merged, boolean eightConnected) {
+		int upper = (below.y0 - 1) * width;
+		int lower = below.y0 * width;
+
+		for(int x = 0; x < width; x++) {
+			int local = labels[lower + x];
+			if(local == 0) {
+				continue;
+			}
+			int label = below.offset + below.localToRoot[local];
+
+			for(int dx = eightConnected ? -1 : 0; dx <= (eightConnected ? 1 : 0); dx++) {
+				int nx = x + dx;
+				if(nx < 0 || nx >= width) {
+					continue;
+				}
+				int neighbor = labels[upper + nx];
+				if(neighbor != 0) {
+					merged.union(label, above.offset + above.localToRoot[neighbor]);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Adds up the statistics collected by each strip.
+	 */
+	private void combine(Strip[] parts) {
+		allocate(count);
+
+		for(Strip strip : parts) {
+			for(int label = 1; label <= count; label++) {
+				if(strip.area[label] == 0) {
+					continue;
+				}
+				if(area[label] == 0) {
+					first[label] = strip.first[label];
+				}
+				area[label] += strip.area[label];
+				minX[label] = Math.min(minX[label], strip.minX[label]);
+				minY[label] = Math.min(minY[label], strip.minY[label]);
+				maxX[label] = Math.max(maxX[label], strip.maxX[label]);
+				maxY[label] = Math.max(maxY[label], strip.maxY[label]);
+			}
+			strip.release();
+		}
+	}
+
+
+	private void allocate(int count) {
+		this.count = count;
+		area = new int[count + 1];
+		first = new int[count + 1];
+		minX = new int[count + 1];
+		minY = new int[count + 1];
+		maxX = new int[count + 1];
+		maxY = new int[count + 1];
+		Arrays.fill(minX, Integer.MAX_VALUE);
+		Arrays.fill(minY, Integer.MAX_VALUE);
+		Arrays.fill(maxX, -1);
+		Arrays.fill(maxY, -1);
+	}
+
+
+	/**
+	 * A band of rows labeled on its own.
+	 */
+	private static class Strip {
+		final int y0;
+		final int y1;
+		int offset;        // labels before this strip, once merged.
+		int roots;         // number of distinct labels in this strip.
+		int[] localToRoot; // provisional label ==> 1 to roots.
+
+		int[] area;
+		int[] first;
+		int[] minX;
+		int[] minY;
+		int[] maxX;
+		int[] maxY;
+
+		Strip(int y0, int y1) {
+			this.y0 = y0;
+			this.y1 = y1;
+		}
+
+
+		/**
+		 * First pass of the two-pass algorithm over this strip's rows.
+		 */
+		void label(byte[] mask, int[] labels, int width, boolean eightConnected) {
+			UnionFind uf = new UnionFind(64);
+
+			for(int y = y0; y < y1; y++) {
+				int row = y * width;
+				boolean hasAbove = y > y0;
+
+				for(int x = 0; x < width; x++) {
+					int index = row + x;
+					if(mask[index] == 0) {
+						continue;
+					}
+
+					int label = 0;
+					if(x > 0) {
+						label = join(uf, label, labels[index - 1]);
+					}
+					if(hasAbove) {
+						label = join(uf, label, labels[index - width]);
+						if(eightConnected) {
+							if(x > 0) {
+								label = join(uf, label, labels[index - width - 1]);
+							}
+							if(x < width - 1) {
+								label = join(uf, label, labels[index - width + 1]);
+							}
+						}
+					}
+					if(label == 0) {
+						label = uf.add();
+					}
+					labels[index] = label;
+				}
+			}
+
+			localToRoot = new int[uf.size];
+			int[] rootIds = new int[uf.size];
+			for(int local = 1; local < uf.size; local++) {
+				int root = uf.find(local);
+				if(rootIds[root] == 0) {
+					rootIds[root] = ++roots;
+				}
+				localToRoot[local] = rootIds[root];
+			}
+		}
+
+
+		private static int join(UnionFind uf, int label, int neighbor) {
+			if(neighbor == 0) {
+				return label;
+			}
+			if(label == 0) {
+				return neighbor;
+			}
+			uf.union(label, neighbor);
+			return Math.min(label, neighbor);
+		}
+
+
+		/**
+		 * Second pass: replaces the provisional labels with the final ones.
+		 */
+		void relabel(int[] labels, int width, int count, UnionFind merged, int[] finalLabel) {
+			int[] table = new int[localToRoot.length];
+			for(int local = 1; local < table.length; local++) {
+				table[local] = finalLabel[merged.find(offset + localToRoot[local])];
+			}
+
+			area = new int[count + 1];
+			first = new int[count + 1];
+			minX = new int[count + 1];
+			minY = new int[count + 1];
+			maxX = new int[count + 1];
+			maxY = new int[count + 1];
+
+			for(int y = y0; y < y1; y++) {
+				int row = y * width;
+				for(int x = 0; x < width; x++) {
+					int local = labels[row + x];
+					if(local == 0) {
+						continue;
+					}
+					int label = table[local];
+					labels[row + x] = label;
+
+					if(area[label]++ == 0) {
+						first[label] = row + x;
+						minX[label] = x;
+						minY[label] = y;
+						maxX[label] = x;
+					}
+					else {
+						minX[label] = Math.min(minX[label], x);
+						maxX[label] = Math.max(maxX[label], x);
+					}
+					maxY[label] = y;
+				}
+			}
+		}
+
+
+		void release() {
+			area = first = minX = minY = maxX = maxY = null;
+			localToRoot = null;
+		}
+	}
+}
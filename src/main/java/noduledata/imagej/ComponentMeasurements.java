@@ -0,0 +1,254 @@
+package noduledata.imagej;
+
+import java.awt.Rectangle;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import ij.gui.Roi;
+import ij.measure.ResultsTable;
+
+
+/**
+ * Shape measurements of every nodule of a labeling, computed in one scan of the labels and from the
+ * traced outlines instead of selecting each ROI and running the Analyzer on it. Values are stored
+ * in one array per measurement, with a row per nodule in label order.<br>
+ *
+ * Each row describes the outline of a nodule with its holes filled in, the same selection
+ * {@link ComponentLabeler#getRoi(int)} traces, so the values match what the Analyzer measured
+ * on those ROIs:<br>
+ * area : pixels inside the outline.<br>
+ * perimeter : length of the traced outline, {@link Roi#getLength()}, which counts corners like
+ * PolygonRoi.getTracedPerimeter does.<br>
+ * circularity : 4pi(area/perimeter^2), at most 1.<br>
+ * area fraction : percentage of the pixels inside the outline that are nodule pixels, always 100
+ * since holes are filled.<br>
+ * centroid and bounding box.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class ComponentMeasurements {
+
+	private int size;
+	private double[] area;
+	private double[] perimeter;
+	private double[] circularity;
+	private double[] areaFraction;
+	private double[] xCentroid;
+	private double[] yCentroid;
+	private Rectangle[] bounds;
+
+
+	/**
+	 * Makes a store with the given number of rows, all 0.
+	 */
+	public ComponentMeasurements(int size) {
+		this.size = size;
+		this.area = new double[size];
+		this.perimeter = new double[size];
+		this.circularity = new double[size];
+		this.areaFraction = new double[size];
+		this.xCentroid = new double[size];
+		this.yCentroid = new double[size];
+		this.bounds = new Rectangle[size];
+		for(int ii = 0; ii < size; ii++) {
+			bounds[ii] = new Rectangle();
+		}
+	}
+
+
+	/**
+	 * Measures every nodule of a labeling without holes, see {@link ComponentLabeler#fillHoles()}.
+	 *
+	 * @param nodules : labeled nodule pixels, holes filled in.
+	 * @param outlines : the outline of each nodule, in label order, from {@link ComponentLabeler#getRoi(int)}.
+	 * @return : one row per nodule.
+	 */
+	public static ComponentMeasurements measure(ComponentLabeler nodules, Roi[] outlines) {
+		int width = nodules.getWidth();
+		int[] labels = nodules.getLabels();
+		int n = nodules.getCount();
+
+		// only each nodule's bounding box is scanned.
+		double[] sumX = new double[n + 1];
+		double[] sumY = new double[n + 1];
+		for(int nodule = 1; nodule <= n; nodule++) {
+			Rectangle box = nodules.getBounds(nodule);
+			for(int y = box.y; y < box.y + box.height; y++) {
+				for(int x = box.x; x < box.x + box.width; x++) {
+					if(labels[y * width + x] == nodule) {
+						sumX[nodule] += x;
+						sumY[nodule] += y;
+					}
+				}
+			}
+		}
+
+		ComponentMeasurements result = new ComponentMeasurements(n);
+		for(int ii = 1; ii <= n; ii++) {
+			double area = nodules.getArea(ii);
+			result.set(ii - 1, area, outlines[ii - 1].getLength(), sumX[ii], sumY[ii], nodules.getBounds(ii));
+		}
+		return result;
+	}
+
+
+	private void set(int row, double area, double perimeter, double sumX, double sumY, Rectangle bounds) {
+		this.area[row] = area;
+		this.perimeter[row] = perimeter;
+		this.areaFraction[row] = 100; // holes are filled, so the outline holds only nodule pixels.
+		this.circularity[row] = perimeter == 0 ? 0 : Math.min(1, 4 * Math.PI * area / (perimeter * perimeter));
+		this.xCentroid[row] = area == 0 ? 0 : sumX / area + 0.5;
+		this.yCentroid[row] = area == 0 ? 0 : sumY / area + 0.5;
+		this.bounds[row] = bounds;
+	}
+
+
+	/** @return : the number of rows. */
+	public int size() {
+		return size;
+	}
+
+
+	public double getArea(int row) {
+		return area[row];
+	}
+
+
+	public double getPerimeter(int row) {
+		return perimeter[row];
+	}
+
+
+	public double getCircularity(int row) {
+		return circularity[row];
+	}
+
+
+	/** @return : percentage of the pixels inside the outline that are nodule pixels. */
+	public double getAreaFraction(int row) {
+		return areaFraction[row];
+	}
+
+
+	public double getXCentroid(int row) {
+		return xCentroid[row];
+	}
+
+
+	public double getYCentroid(int row) {
+		return yCentroid[row];
+	}
+
+
+	public Rectangle getBounds(int row) {
+		return new Rectangle(bounds[row]);
+	}
+
+
+	/**
+	 * Removes the given row, shifting the rows after it up. Rows that don't exist are ignored,
+	 * the same as ResultsTable.deleteRow.
+	 */
+	public void deleteRow(int row) {
+		if(row < 0 || row >= size) {
+			return;
+		}
+		int moved = size - row - 1;
+		System.arraycopy(area, row + 1, area, row, moved);
+		System.arraycopy(perimeter, row + 1, perimeter, row, moved);
+		System.arraycopy(circularity, row + 1, circularity, row, moved);
+		System.arraycopy(areaFraction, row + 1, areaFraction, row, moved);
+		System.arraycopy(xCentroid, row + 1, xCentroid, row, moved);
+		System.arraycopy(yCentroid, row + 1, yCentroid, row, moved);
+		System.arraycopy(bounds, row + 1, bounds, row, moved);
+		size--;
+	}
+
+
+	/**
+	 * Removes the given rows in one pass, shifting the rows after them up.
+	 *
+	 * @param rows : rows to remove, in ascending order.
+	 */
+	public void deleteRows(int[] rows) {
+		int next = 0;
+		int kept = 0;
+		for(int row = 0; row < size; row++) {
+			if(next < rows.length && rows[next] == row) {
+				next++;
+				continue;
+			}
+			area[kept] = area[row];
+			perimeter[kept] = perimeter[row];
+			circularity[kept] = circularity[row];
+			areaFraction[kept] = areaFraction[row];
+			xCentroid[kept] = xCentroid[row];
+			yCentroid[kept] = yCentroid[row];
+			bounds[kept] = bounds[row];
+			kept++;
+		}
+		size = kept;
+	}
+
+
+	/**
+	 * Writes every row to a bundle, see {@link SegmentationBundle}.
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		for(int ii = 0; ii < size; ii++) {
+			out.writeDouble(area[ii]);
+			out.writeDouble(perimeter[ii]);
+			out.writeDouble(circularity[ii]);
+			out.writeDouble(areaFraction[ii]);
+			out.writeDouble(xCentroid[ii]);
+			out.writeDouble(yCentroid[ii]);
+			out.writeInt(bounds[ii].x);
+			out.writeInt(bounds[ii].y);
+			out.writeInt(bounds[ii].width);
+			out.writeInt(bounds[ii].height);
+		}
+	}
+
+
+	/**
+	 * Reads the rows written by {@link #writeTo}.
+	 */
+	static ComponentMeasurements readFrom(DataInputStream in) throws IOException {
+		ComponentMeasurements table = new ComponentMeasurements(in.readInt());
+		for(int ii = 0; ii < table.size; ii++) {
+			table.area[ii] = in.readDouble();
+			table.perimeter[ii] = in.readDouble();
+			table.circularity[ii] = in.readDouble();
+			table.areaFraction[ii] = in.readDouble();
+			table.xCentroid[ii] = in.readDouble();
+			table.yCentroid[ii] = in.readDouble();
+			table.bounds[ii] = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+		}
+		return table;
+	}
+
+
+	/**
+	 * Copies the measurements into a ResultsTable, for showing or saving.
+	 */
+	public ResultsTable toResultsTable() {
+		ResultsTable table = new ResultsTable();
+		for(int ii = 0; ii < size; ii++) {
+			table.incrementCounter();
+			table.addValue("Area", area[ii]);
+			table.addValue("Perim.", perimeter[ii]);
+			table.addValue("Circ.", circularity[ii]);
+			table.addValue("%Area", areaFraction[ii]);
+			table.addValue("X", xCentroid[ii]);
+			table.addValue("Y", yCentroid[ii]);
+			table.addValue("BX", bounds[ii].x);
+			table.addValue("BY", bounds[ii].y);
+			table.addValue("Width", bounds[ii].width);
+			table.addValue("Height", bounds[ii].height);
+		}
+		return table;
+	}
+}
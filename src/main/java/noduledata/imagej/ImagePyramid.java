@@ -0,0 +1,181 @@
+package noduledata.imagej;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ij.ImagePlus;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+
+/**
+ * Downsampled copies of one image, each half the size of the one before, for showing previews of
+ * the image without resizing it at full resolution every time. The levels are built once, in the
+ * background, starting when the pyramid of an image is first asked for. A view of any part of the
+ * image is read from the smallest level that still has at least as many pixels as the view.<br>
+ *
+ * Level 0 is the image itself. Levels stop once both sides are at most {@link #SMALLEST} pixels,
+ * so all levels together take a third of the image's memory.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class ImagePyramid {
+
+	public static final int SMALLEST = 256; // largest side of the smallest level.
+
+	private static final Map<ImagePlus, ImagePyramid> PYRAMIDS = new WeakHashMap<>();
+	private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "ImagePyramid");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final ColorProcessor full;
+	private final int width;
+	private final int height;
+	private final Future<ColorProcessor[]> levels;
+
+
+	private ImagePyramid(ImagePlus image) {
+		ImageProcessor ip = image.getProcessor();
+		this.full = ip instanceof ColorProcessor ? (ColorProcessor) ip : ip.convertToColorProcessor();
+		this.width = full.getWidth();
+		this.height = full.getHeight();
+		this.levels = BUILDER.submit(() -> build(full));
+	}
+
+
+	/**
+	 * Returns the pyramid of the image, starting to build it if this is the first time it's asked for.
+	 */
+	public static ImagePyramid of(ImagePlus image) {
+		synchronized(PYRAMIDS) {
+			ImagePyramid pyramid = PYRAMIDS.get(image);
+			if(pyramid == null) {
+				pyramid = new ImagePyramid(image);
+				PYRAMIDS.put(image, pyramid);
+			}
+			return pyramid;
+		}
+	}
+
+
+	/**
+	 * Drops the pyramid of the image, once nothing more will be shown of it.
+	 */
+	public static void release(ImagePlus image) {
+		synchronized(PYRAMIDS) {
+			PYRAMIDS.remove(image);
+		}
+	}
+
+
+	private static ColorProcessor[] build(ColorProcessor full) {
+		ArrayList<ColorProcessor> levels = new ArrayList<>();
+		levels.add(full);
+		ColorProcessor level = full;
+		while(level.getWidth() > SMALLEST || level.getHeight() > SMALLEST) {
+			level = half(level);
+			levels.add(level);
+		}
+		return levels.toArray(new ColorProcessor[0]);
+	}
+
+
+	/**
+	 * Halves the image, averaging each 2x2 block of pixels. An odd last row or column is averaged
+	 * with itself.
+	 */
+	private static ColorProcessor half(ColorProcessor level) {
+		int w = level.getWidth();
+		int h = level.getHeight();
+		int halfW = Math.max(1, (w + 1) / 2);
+		int halfH = Math.max(1, (h + 1) / 2);
+		int[] pixels = (int[]) level.getPixels();
+		int[] half = new int[halfW * halfH];
+
+		for(int y = 0; y < halfH; y++) {
+			int row0 = Math.min(2 * y, h - 1) * w;
+			int row1 = Math.min(2 * y + 1, h - 1) * w;
+			for(int x = 0; x < halfW; x++) {
+				int x0 = Math.min(2 * x, w - 1);
+				int x1 = Math.min(2 * x + 1, w - 1);
+				int a = pixels[row0 + x0];
+				int b = pixels[row0 + x1];
+				int c = pixels[row1 + x0];
+				int d = pixels[row1 + x1];
+				int r = (((a >> 16) & 0xff) + ((b >> 16) & 0xff) + ((c >> 16) & 0xff) + ((d >> 16) & 0xff) + 2) >> 2;
+				int g = (((a >> 8) & 0xff) + ((b >> 8) & 0xff) + ((c >> 8) & 0xff) + ((d >> 8) & 0xff) + 2) >> 2;
+				int bl = ((a & 0xff) + (b & 0xff) + (c & 0xff) + (d & 0xff) + 2) >> 2;
+				half[y * halfW + x] = (0xff << 24) | (r << 16) | (g << 8) | bl;
+			}
+		}
+		return new ColorProcessor(halfW, halfH, half);
+	}
+
+
+	/**
+	 * Returns part of the image at the given size, waiting for the levels if they're still being built.
+	 *
+	 * @param region : part of the image, in full resolution pixels. Clipped to the image.
+	 * @param width : width of the view.
+	 * @param height : height of the view.
+	 * @return : a new image of the region, black if it's off the image. Read from the smallest level
+	 *         with enough pixels for the view.
+	 */
+	public ColorProcessor getRegion(Rectangle region, int width, int height) {
+		Rectangle clip = region.intersection(new Rectangle(this.width, this.height));
+		if(clip.isEmpty()) {
+			return new ColorProcessor(width, height);
+		}
+		ColorProcessor[] levels = getLevels();
+
+		int level = 0;
+		while(level + 1 < levels.length && (clip.width >> (level + 1)) >= width && (clip.height >> (level + 1)) >= height) {
+			level++;
+		}
+
+		ColorProcessor source = levels[level];
+		Rectangle scaled = new Rectangle(clip.x >> level, clip.y >> level, Math.max(1, clip.width >> level), Math.max(1, clip.height >> level))
+				.intersection(new Rectangle(source.getWidth(), source.getHeight()));
+		ColorProcessor view = crop(source, scaled);
+
+		if(view.getWidth() != width || view.getHeight() != height) {
+			view.setInterpolationMethod(ImageProcessor.BILINEAR);
+			view = (ColorProcessor) view.resize(width, height);
+		}
+		return view;
+	}
+
+
+	private ColorProcessor[] getLevels() {
+		try {
+			return levels.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch(ExecutionException e) {
+			System.out.println("Error building the image pyramid: " + e.getCause() + ". Reading from the full image.");
+		}
+		return new ColorProcessor[] {full};
+	}
+
+
+	/**
+	 * Copies part of a level without setting a roi on it, so views can be read from several threads.
+	 */
+	private static ColorProcessor crop(ColorProcessor level, Rectangle rect) {
+		int[] pixels = (int[]) level.getPixels();
+		int[] crop = new int[rect.width * rect.height];
+		for(int y = 0; y < rect.height; y++) {
+			System.arraycopy(pixels, (rect.y + y) * level.getWidth() + rect.x, crop, y * rect.width, rect.width);
+		}
+		return new ColorProcessor(rect.width, rect.height, crop);
+	}
+}
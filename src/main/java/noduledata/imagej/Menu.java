@@ -28,6 +28,7 @@ public class Menu implements Command {
 	protected static final int IMAGE = 2;
 	protected static final int MODEL = 3;
 	protected static final int OTHERFILETYPE = 4;
+	protected static final int BUNDLE = 5;
 	
 	
 	protected File file;
@@ -36,6 +37,15 @@ public class Menu implements Command {
     protected int redSingle = 3000;
     protected int greenSingle = 3000;
     protected int mixedSingle = 3000;
+    protected int threads = Runtime.getRuntime().availableProcessors(); // images analyzed at once in folder mode.
+    protected File redModelFile = null; // optional red-only model for dim red nodules.
+    protected boolean headless = false;  // true ==> no dialogs are shown, decisions are made automatically.
+    protected boolean compiledModel = true; // true ==> segment with a lookup table compiled from the model.
+    
+    protected static final String USAGE = "Usage: NoduleSegmentation --input <image or folder> --model <file.model> "
+    		+ "--output <folder> [--red-size 3000] [--green-size 3000] [--mixed-size 3000] [--threads N] "
+    		+ "[--red-model <file.model>] [--compiled-model true|false]\n"
+    		+ "       NoduleSegmentation --input <file.bundle> --output <folder>";
 
     
     
@@ -47,7 +57,7 @@ public class Menu implements Command {
         GenericDialog gd = new GenericDialog("Nodule Segmentation Plugin");
 
         // Add a button to select image or folder
-        gd.addButton("Select image or folder to analyze", new ActionListener() {
+        gd.addButton("Select image, folder or saved bundle to analyze", new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 selectFiles("image or folder");
             }
@@ -66,12 +76,21 @@ public class Menu implements Command {
                 selectFiles("saveFile");
             }
         });
+        
+        // Add a button to select the optional red ONLY model, used on images with dim red nodules.
+        gd.addButton("Select red ONLY model File (optional)", new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                selectFiles("redModel");
+            }
+        });
 
      
         // Add numeric input fields
         gd.addNumericField("Red nodule size upper bound:", 3000, 0);
         gd.addNumericField("Green nodule size upper bound:", 3000, 0);
         gd.addNumericField("Mixed nodule size upper bound:", 3000, 0);
+        gd.addNumericField("Images processed in parallel (folders only):", threads, 0);
+        gd.addCheckbox("Use compiled model (faster, red/green models only)", compiledModel);
         
         // Show the dialog to let user interact.
         gd.showDialog();
@@ -91,7 +110,19 @@ public class Menu implements Command {
             double mixedSingle = gd.getNextNumber();
             System.out.println("Mixed Single: " + mixedSingle);
             
-            if(file == null || saveFile == null || modelFile == null || redSingle == -1 || greenSingle == -1 || mixedSingle == -1) {
+            double threads = gd.getNextNumber();
+            System.out.println("Parallel images: " + threads);
+            
+            this.compiledModel = gd.getNextBoolean();
+            
+            this.redSingle = (int) redSingle;
+            this.greenSingle = (int) greenSingle;
+            this.mixedSingle = (int) mixedSingle;
+            this.threads = Math.max(1, (int) threads);
+            
+            // a bundle is already segmented, so it doesn't need a model.
+            boolean bundle = file != null && getFileType(file) == BUNDLE;
+            if(file == null || saveFile == null || (modelFile == null && !bundle) || redSingle == -1 || greenSingle == -1 || mixedSingle == -1) {
 	            System.out.println("Erorr, you must fill in all of the blanks to generate data. Please try again.");
 	            display();
             }
@@ -108,13 +139,19 @@ public class Menu implements Command {
 	            display();
             }
             
-            type = getFileType(modelFile);
+            type = bundle ? MODEL : getFileType(modelFile);
             if(type != MODEL) {
             	System.out.println("Error, the model file must be a .model file. You can generate .model files "
             			+ "using Weka's ColorClustering ImageJ plugin. See the github page for more instructions.");
 	            display();
             }
             
+            if(redModelFile != null && getFileType(redModelFile) != MODEL) {
+            	System.out.println("Error, the red ONLY model file must be a .model file.");
+            	redModelFile = null;
+	            display();
+            }
+            
         }
         else {
         	return;
@@ -150,7 +187,7 @@ public class Menu implements Command {
     		fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
 
         // Add a file filter for image files (you can customize this for specific image types)
-    		imageFilter = new FileNameExtensionFilter("Image Files and Folders", "jpg", "jpeg", "png", "gif");
+    		imageFilter = new FileNameExtensionFilter("Image Files, Folders and Bundles", "jpg", "jpeg", "png", "gif", SegmentationBundle.EXTENSION);
     		fileChooser.setFileFilter(imageFilter);
         
     		result = fileChooser.showOpenDialog(null);
@@ -181,6 +218,23 @@ public class Menu implements Command {
     		System.out.println("Chosen: " + this.modelFile.getAbsolutePath());
     		break;
     		
+    	case "redModel":
+    		fileChooser.setDialogTitle("Choose a Red ONLY clusterer model.");
+    		fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+    		
+    		imageFilter = new FileNameExtensionFilter("Model Files", "model");
+    		fileChooser.setFileFilter(imageFilter);
+    		
+    		result = fileChooser.showOpenDialog(null);
+    		
+    		if(result != JFileChooser.APPROVE_OPTION) {
+    			System.out.println("Error, invalid option.");
+    			return;
+    		}
+    		this.redModelFile = fileChooser.getSelectedFile();
+    		System.out.println("Chosen: " + this.redModelFile.getAbsolutePath());
+    		break;
+    		
     	case "saveFile":
     		fileChooser.setDialogTitle("Select a folder to save your output.");
     		fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
@@ -206,12 +260,99 @@ public class Menu implements Command {
 	
 	
 	
+	/**
+	 * Builds a headless menu from command line arguments instead of the dialog.
+	 * 
+	 * @param args : command line arguments, see {@link #USAGE}.
+	 * @return : menu holding the parsed input, with headless set to true.
+	 * @throws IllegalArgumentException : if an argument is unknown, missing its value, or points to the wrong file type.
+	 */
+	protected static Menu fromArgs(String[] args) throws IllegalArgumentException {
+		Menu menu = new Menu();
+		menu.headless = true;
+		
+		for(int ii = 0; ii < args.length; ii++) {
+			String arg = args[ii];
+			
+			if(ii + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + arg + ". " + USAGE);
+			}
+			String value = args[++ii];
+			
+			try {
+				switch(arg) {
+				case "--input":
+					menu.file = new File(value);
+					break;
+				case "--model":
+					menu.modelFile = new File(value);
+					break;
+				case "--output":
+					menu.saveFile = new File(value);
+					break;
+				case "--red-size":
+					menu.redSingle = Integer.parseInt(value);
+					break;
+				case "--green-size":
+					menu.greenSingle = Integer.parseInt(value);
+					break;
+				case "--mixed-size":
+					menu.mixedSingle = Integer.parseInt(value);
+					break;
+				case "--threads":
+					menu.threads = Math.max(1, Integer.parseInt(value));
+					break;
+				case "--red-model":
+					menu.redModelFile = new File(value);
+					break;
+				case "--compiled-model":
+					if(!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+						throw new IllegalArgumentException("--compiled-model expects true or false, got " + value + ".");
+					}
+					menu.compiledModel = Boolean.parseBoolean(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown argument " + arg + ". " + USAGE);
+				}
+			}catch(NumberFormatException e) {
+				throw new IllegalArgumentException(arg + " expects a whole number, got " + value + ".");
+			}
+		}
+		
+		boolean bundle = menu.file != null && getFileType(menu.file) == BUNDLE;
+		if(menu.file == null || (menu.modelFile == null && !bundle) || menu.saveFile == null) {
+			throw new IllegalArgumentException("--input, --model and --output are required. " + USAGE);
+		}
+		if(!menu.file.exists() || getFileType(menu.file) == MODEL || getFileType(menu.file) == OTHERFILETYPE) {
+			throw new IllegalArgumentException("--input must be an existing folder, image file or bundle.");
+		}
+		if(!bundle && (getFileType(menu.modelFile) != MODEL || !menu.modelFile.isFile())) {
+			throw new IllegalArgumentException("--model must be an existing .model file.");
+		}
+		if(menu.redModelFile != null && (getFileType(menu.redModelFile) != MODEL || !menu.redModelFile.isFile())) {
+			throw new IllegalArgumentException("--red-model must be an existing .model file.");
+		}
+		if(menu.redSingle <= 0 || menu.greenSingle <= 0 || menu.mixedSingle <= 0) {
+			throw new IllegalArgumentException("Nodule size upper bounds must be positive.");
+		}
+		
+		menu.saveFile.mkdirs();
+		if(!menu.saveFile.isDirectory()) {
+			throw new IllegalArgumentException("--output must be a folder.");
+		}
+		
+		return menu;
+	}
+	
+	
+	
 	 /**
      * Returns:<br>
      * 1 for folder<br>
      * 2 for accepted image type<br>
      * 3 for .model file<br>
      * 4 for any other filetype. <br>
+     * 5 for a saved segmentation bundle, see {@link SegmentationBundle}.<br>
      * Note: These integers are saved as protected Menu variables.
      */
     protected static int getFileType(File file) {
@@ -229,6 +370,9 @@ public class Menu implements Command {
     	else if(extension.equalsIgnoreCase("model")) {
     		FILETYPE = MODEL;
     	}
+    	else if(extension.equalsIgnoreCase(SegmentationBundle.EXTENSION)) {
+    		FILETYPE = BUNDLE;
+    	}
     	else {
     		System.out.println("Selected file is not a folder or an acceptable "
     				+ "image type. Please ensure the image you're trying to enter"
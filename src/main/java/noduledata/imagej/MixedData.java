@@ -1,26 +1,26 @@
 package noduledata.imagej;
 
 import java.awt.Color;
-import java.awt.Point;
 import java.awt.Polygon;
+import java.awt.Rectangle;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.geom.Area;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.stream.Collectors;
 
 import javax.swing.ImageIcon;
 
 import fiji.util.gui.GenericDialogPlus;
 import ij.IJ;
 import ij.ImagePlus;
-import ij.WindowManager;
 import ij.gui.Overlay;
+import ij.gui.Roi;
 
 import ij.gui.ShapeRoi;
-import ij.plugin.frame.RoiManager;
+import ij.process.ImageProcessor;
 
 
 
@@ -37,6 +37,8 @@ import ij.plugin.frame.RoiManager;
  */
 public class MixedData extends ColorData {
 
+	private final static int MERGEDISTANCE = 3; // mixed rois closer than this are one nodule.
+	private final static int GRIDCELL = 64;     // side of a cell in the grid used to find close rois.
 	private int BUTTON = -1;
 	private int YES = 1;
 	private int NO = 0;
@@ -51,13 +53,12 @@ public class MixedData extends ColorData {
 	/**
 	 * Uses the ColorData constructor method.
 	 * 
-	 * @param manager : RoiManager object.
 	 * @param color : rgb of the nodule type.
 	 * @param colorThreshold : pixel threshold for a singular noduel area
 	 * @param im : image we're doing analysis on.
 	 */
-	public MixedData(RoiManager manager, int[] color, int colorThreshold, ImagePlus im) {
-		super(manager, color, colorThreshold, im);
+	public MixedData(int[] color, int colorThreshold, ImagePlus im) {
+		super(color, colorThreshold, im);
 	}
 	
 	/**
@@ -77,16 +78,21 @@ public class MixedData extends ColorData {
 	}
 	
 	/** 
-	 * public method for setting roi at given index.
+	 * public method for setting rois at given indices, along with their pixel counts.
 	 */
 	@Override
-	public void setRoi(int index, ShapeRoi roi) {
-	super.setRoi(index, roi);
+	public void setArrayOfRois(int[] indices, ShapeRoi[] replacements) {
+	super.setArrayOfRois(indices, replacements);
 	
 	if(this.redPixels != null) {
-		int[] areas = getColoredArea(roi);
-		this.redPixels[index] = areas[0];
-		this.greenPixels[index] = areas[1];
+		for(int ii = 0; ii < indices.length; ii++) {
+			if(indices[ii] < 0 || indices[ii] >= this.redPixels.length) {
+				continue;
+			}
+			int[] areas = getColoredArea(replacements[ii]);
+			this.redPixels[indices[ii]] = areas[0];
+			this.greenPixels[indices[ii]] = areas[1];
+		}
 	}
 	
 	}
@@ -135,87 +141,109 @@ public class MixedData extends ColorData {
 		int index = this.getIndex(roi);
 		super.removeRoi(roi);
 		
-		if(this.greenPixels != null) {
-			
-		int[] newGreenPixels = new int[this.greenPixels.length - 1];
-		int[] newRedPixels = new int[this.redPixels.length - 1];
-		int[][] newClumped = new int[this.clumped.length-1][2];
+		removeMixedData(new int[] {index});
+		return true;
+	}
+	
+	
+	/**
+	 * Removes the rois at the given indices along with their pixel counts and clumped[][] rows.
+	 */
+	@Override
+	public boolean removeArrayOfRois(int[] indices) {
+		if(!super.removeArrayOfRois(indices)) {
+			return false;
+		}
+		removeMixedData(indices);
+		return true;
+	}
+	
+	
+	/**
+	 * Compacts redPixels, greenPixels and clumped[][] in one pass past the removed indices.
+	 * @param indices : removed roi indices, in ascending order.
+	 */
+	private void removeMixedData(int[] indices) {
+		if(this.greenPixels == null || indices.length == 0) {
+			return;
+		}
 		
-		System.arraycopy(this.redPixels, 0, newRedPixels, 0, index);
-		System.arraycopy(this.redPixels, index+1, newRedPixels, index, this.redPixels.length - index - 1);
-		this.redPixels = newRedPixels;
+		int n = this.greenPixels.length - indices.length;
+		int[] newGreenPixels = new int[n];
+		int[] newRedPixels = new int[n];
+		int[][] newClumped = new int[n][];
 		
-		System.arraycopy(this.greenPixels, 0, newGreenPixels, 0, index);
-		System.arraycopy(this.greenPixels, index+1, newGreenPixels, index, this.greenPixels.length - index - 1);
+		int next = 0;
+		int c = 0;
+		for(int ii = 0; ii < this.greenPixels.length; ii++) {
+			if(next < indices.length && indices[next] == ii) {
+				next++;
+				continue;
+			}
+			newRedPixels[c] = this.redPixels[ii];
+			newGreenPixels[c] = this.greenPixels[ii];
+			newClumped[c] = this.clumped[ii];
+			c++;
+		}
+		this.redPixels = newRedPixels;
 		this.greenPixels = newGreenPixels;
-		
-		System.arraycopy(this.clumped, 0, newClumped, 0, index);
-		System.arraycopy(this.clumped, index+1, newClumped, index, this.clumped.length -index - 1);
 		this.clumped = newClumped;
 		
-		this.numNodules--;
-		}
-		
-		return true;
+		this.numNodules -= indices.length;
 	}
 	
 	/**
 	 * Asks the user if each Mixed ROI is a true mixed ROI, or just between 
-	 * a red and green roi.
+	 * a red and green roi. When headless there is nobody to ask, so every mixed ROI is kept.
 	 */
-	private void removeFakeNodules() {
+	public void removeFakeNodules() {
+		
+		if(headless) {
+			IJ.log("Headless: keeping all " + this.getRois().length + " mixed ROI's.");
+			return;
+		}
 		
 		ImagePlus image = null;
 		
 		ArrayList<ShapeRoi> roisToDelete = new ArrayList<ShapeRoi>();
 		
 		
-		for(ShapeRoi roi : this.getRois()) {
-			image = UserEditsHandler.getImageFromRoi(roi, NoduleSegmentation.image);
+		// other images may be computed in parallel, ask about one image at a time.
+		synchronized(UserEditsHandler.REVIEW_LOCK) {
+			for(ShapeRoi roi : this.getRois()) {
+				// already scaled down to fit the dialog.
+				image = UserEditsHandler.getImageFromRoi(roi, this.image);
+				int imageWidth = image.getWidth();
+				int imageHeight = image.getHeight();
 			
-			int maxWidth = 800; // Maximum width for the displayed image
-	        int maxHeight = 600; // Maximum height for the displayed image
-	        int imageWidth = image.getWidth();
-	        int imageHeight = image.getHeight();
-
-	        if (imageWidth > maxWidth || imageHeight > maxHeight) {
-	            // Scale down the image while preserving the aspect ratio
-	            double widthRatio = (double) maxWidth / imageWidth;
-	            double heightRatio = (double) maxHeight / imageHeight;
-	            double scaleRatio = Math.min(widthRatio, heightRatio);
-	             imageWidth = (int) (imageWidth * scaleRatio);
-	             imageHeight = (int) (imageHeight * scaleRatio);
-	            image = image.resize(imageWidth, imageHeight, "none");
-	        } 
-	        
-		
-			GenericDialogPlus gd = new GenericDialogPlus("Is this a mixed nodule?");
+				GenericDialogPlus gd = new GenericDialogPlus("Is this a mixed nodule? (" + this.image.getTitle() + ")");
 			
-			gd.addImage(new ImageIcon(image.getBufferedImage()));
+				gd.addImage(new ImageIcon(image.getBufferedImage()));
 			
-			gd.addButton("Yes",new ActionListener() {
-		        @Override
-		        public void actionPerformed(ActionEvent e) {
-		        	BUTTON=YES;
-		        	gd.dispose();
-		        }});
+				gd.addButton("Yes",new ActionListener() {
+			        @Override
+			        public void actionPerformed(ActionEvent e) {
+			        	BUTTON=YES;
+			        	gd.dispose();
+			        }});
 			
 			
-			gd.addButton("No",new ActionListener() {
-		        @Override
-		        public void actionPerformed(ActionEvent e) {
-		        	BUTTON=NO;
-		        	gd.dispose();
-		        }});
+				gd.addButton("No",new ActionListener() {
+			        @Override
+			        public void actionPerformed(ActionEvent e) {
+			        	BUTTON=NO;
+			        	gd.dispose();
+			        }});
 		        
-			gd.setBounds(550, 200,imageWidth+100,imageHeight+100);
-	    	gd.toFront();
+				gd.setBounds(550, 200,imageWidth+100,imageHeight+100);
+		    	gd.toFront();
 	    	
 	    	
-			gd.setVisible(true);
+				gd.setVisible(true);
 			
-			if(BUTTON == NO) {
-				roisToDelete.add(roi);
+				if(BUTTON == NO) {
+					roisToDelete.add(roi);
+				}
 			}
 		}
 		
@@ -229,27 +257,48 @@ public class MixedData extends ColorData {
 	
 	/**
 	 * Identifies mixed nodules by checking for yellow pixels or by calculating the distance between red and green rois.
+	 * Same as {@link #groupMixedNodules()}, {@link #removeFakeNodules()} and then {@link #mergeMixedNodules}.
 	 */
 	 public void findMixedNodules(ImagePlus im, ColorData red, ColorData green) {
-	    	 
-	    	 WindowManager.closeAllWindows();
-	    	 
-	    	 for(int ii = 0; ii < this.numNodules; ii++) {
-	    		 if(this.numNodules == 1) {
-	    			 break;
-	    		 }
+	    	 groupMixedNodules();
+	    	 removeFakeNodules();
+	    	 mergeMixedNodules(im, red, green);
+	     }//==================================
+	 
+	 
+	 /**
+	  * Unions the mixed nodule rois that touch each other, the candidates the user is asked about.
+	  */
+	 public void groupMixedNodules() {
+	    	 if(this.getRois() != null && this.getRois().length > 1) {
 	    		 unionMixedNodules();
 	    	 }
-	    	 
-	    	 removeFakeNodules();
-	    	 
-	    	 
+	     }//==================================
+	 
+	 
+	 /**
+	  * Merges every mixed nodule with the red and green nodules touching it, then counts its red
+	  * and green pixels. Run after the user has been asked about the candidates, so a fake mixed
+	  * nodule doesn't swallow the red and green nodules it sits between.
+	  * 
+	  * @param im : original image
+	  * @param red : ColorData for red nodules
+	  * @param green : ColorData for green nodules.
+	  */
+	 public void mergeMixedNodules(ImagePlus im, ColorData red, ColorData green) {
 	    	 setClumped(new int[this.getRois().length][2]);
 	    	 for(int ii = 0; ii < this.getClumped().length; ii++) {
 	    		 this.getClumped()[ii][0] = -1;
 	    		 this.getClumped()[ii][1] = -1;
 	    	 }
 	    	 
+	    	 // which rois touch, found once for all mixed nodules.
+	    	 RegionAdjacencyGraph graph = RegionAdjacencyGraph.build(im.getWidth(), im.getHeight(), 
+	    			 red.getRois(), green.getRois(), this.getRois());
+	    	 boolean[][] merged = new boolean[2][];
+	    	 merged[RegionAdjacencyGraph.RED] = new boolean[graph.getCount(RegionAdjacencyGraph.RED)];
+	    	 merged[RegionAdjacencyGraph.GREEN] = new boolean[graph.getCount(RegionAdjacencyGraph.GREEN)];
+	    	 
 	    	 int counter = 0;
 	    	 for(ShapeRoi roi : this.getRois()) {
 	    		 if(roi == null) {
@@ -257,7 +306,7 @@ public class MixedData extends ColorData {
 	    			 continue;
 	    		 }
     		 	int index = this.getIndex(roi);
-    		 	ShapeRoi temp = unionNodules( roi,red,green,counter);
+    		 	ShapeRoi temp = unionNodules( roi,red,green,counter, graph, merged);
     		 	counter++;
     		 	
     		 	if ( temp == null) {
@@ -272,6 +321,9 @@ public class MixedData extends ColorData {
 	    		 
 	    	 }
 	    	 
+	    	 removeMerged(green, merged[RegionAdjacencyGraph.GREEN], 1);
+	    	 removeMerged(red, merged[RegionAdjacencyGraph.RED], 0);
+	    	 
 	    	 this.updateMap();
 	    	 updateData(im, red, green);
 	    	 
@@ -284,7 +336,7 @@ public class MixedData extends ColorData {
 	 public void drawRoi(ShapeRoi roi) {
 		 Overlay overlay = new Overlay();
 		 
-		 ImagePlus imp = new ImagePlus("highlighted Roi", NoduleSegmentation.image.getProcessor());
+		 ImagePlus imp = new ImagePlus("highlighted Roi", this.image.getProcessor());
 		 
 		    roi.setPosition(0);
 		    roi.update(true, false);
@@ -315,41 +367,108 @@ public class MixedData extends ColorData {
 	 
 //   ==================================
 	 /**
-	  * Merges two mixed nodules into one mixed nodule if they're within 5 pixels of each other.
+	  * Merges mixed nodules that are within MERGEDISTANCE pixels of each other, and any nodule
+	  * within reach of those, into one mixed nodule.<br>
+	  * 
+	  * The rois are put in a grid by their bounding boxes, grown by MERGEDISTANCE, so the exact
+	  * distance is only calculated for rois whose grown boxes share a grid cell and overlap. Close
+	  * pairs are joined with union-find, then every group is merged at once.
 	  */
 	 private void unionMixedNodules() {
-		
-    	 ShapeRoi testRoi;
-    	 
-    	 for(int indexToReplace = 0; indexToReplace < this.getRois().length ; indexToReplace++) {
-    		 ShapeRoi roi1 = this.getRoi(indexToReplace);
-    		 for(ShapeRoi roi2 : this.getRois()) {
-    			 Polygon poly1 = roi1.getPolygon();
-    			 Polygon poly2 = roi2.getPolygon();
-    			 
-    			 if(! roi1.equals(roi2)) {
-    				 double distance = calculateClosestDistance(poly1, poly2);
-    				 
-    				 if(distance < 3) {
-    					ShapeRoi shapeRoi1 = new ShapeRoi(roi1);
-    					testRoi =new ShapeRoi( shapeRoi1.or(roi2).shapeToRoi() );
-    					this.setRoi(indexToReplace, testRoi);
-    					int index = this.getIndex(roi2);
-    					if( !this.removeRoi(roi2)) {
-    						System.out.println("Failed to remove Roi.");
-    					}
-    					else {
-    						removeFromClumped(index);
-    					}
-    					this.numNodules--;
-    					indexToReplace = this.getRois().length + 1;
-    					break;
-    				 }
-    			 }
-    		 }
-    	 }
-    	 
-    	 return;
+		 
+		 ShapeRoi[] rois = this.getRois();
+		 int n = rois.length;
+		 
+		 Polygon[] polygons = new Polygon[n];
+		 Rectangle[] boxes = new Rectangle[n];
+		 int right = 0;
+		 int bottom = 0;
+		 for(int ii = 0; ii < n; ii++) {
+			 polygons[ii] = rois[ii].getPolygon();
+			 boxes[ii] = rois[ii].getBounds();
+			 boxes[ii].grow(MERGEDISTANCE, MERGEDISTANCE);
+			 right = Math.max(right, boxes[ii].x + boxes[ii].width);
+			 bottom = Math.max(bottom, boxes[ii].y + boxes[ii].height);
+		 }
+		 
+		 // grid[cell] lists the rois whose grown box touches the cell.
+		 int columns = right / GRIDCELL + 1;
+		 int rows = bottom / GRIDCELL + 1;
+		 ArrayList<ArrayList<Integer>> grid = new ArrayList<>(columns * rows);
+		 for(int ii = 0; ii < columns * rows; ii++) {
+			 grid.add(null);
+		 }
+		 
+		 UnionFind groups = new UnionFind(n);
+		 int[] checked = new int[n]; // checked[jj] == ii + 1 ==> pair (ii, jj) was already looked at.
+		 
+		 for(int ii = 0; ii < n; ii++) {
+			 Rectangle box = boxes[ii];
+			 int x0 = Math.max(0, box.x) / GRIDCELL;
+			 int y0 = Math.max(0, box.y) / GRIDCELL;
+			 int x1 = (box.x + box.width) / GRIDCELL;
+			 int y1 = (box.y + box.height) / GRIDCELL;
+			 
+			 for(int cy = y0; cy <= y1; cy++) {
+				 for(int cx = x0; cx <= x1; cx++) {
+					 int cell = cy * columns + cx;
+					 if(grid.get(cell) == null) {
+						 grid.set(cell, new ArrayList<>());
+					 }
+					 
+					 // rois earlier in the array that share this cell.
+					 for(int jj : grid.get(cell)) {
+						 if(checked[jj] == ii + 1 || !box.intersects(boxes[jj])) {
+							 continue;
+						 }
+						 checked[jj] = ii + 1;
+						 if(groups.find(ii) != groups.find(jj) 
+								 && PolygonDistance.withinDistance(polygons[ii], polygons[jj], MERGEDISTANCE)) {
+							 groups.union(ii, jj);
+						 }
+					 }
+					 grid.get(cell).add(ii);
+				 }
+			 }
+		 }
+		 
+		 // merge each group into its first roi, then remove the rest.
+		 ShapeRoi[] merged = new ShapeRoi[n];
+		 ArrayList<Integer> removed = new ArrayList<>();
+		 for(int ii = 0; ii < n; ii++) {
+			 int root = groups.find(ii);
+			 if(root == ii) {
+				 continue;
+			 }
+			 if(merged[root] == null) {
+				 merged[root] = new ShapeRoi(rois[root]);
+			 }
+			 merged[root].or(rois[ii]);
+			 removed.add(ii);
+		 }
+		 
+		 if(removed.isEmpty()) {
+			 return;
+		 }
+		 
+		 ArrayList<Integer> roots = new ArrayList<>();
+		 ArrayList<ShapeRoi> unions = new ArrayList<>();
+		 for(int ii = 0; ii < n; ii++) {
+			 if(merged[ii] != null) {
+				 Roi single = merged[ii].shapeToRoi(); // null ==> the group doesn't touch, keep it composite.
+				 roots.add(ii);
+				 unions.add(single == null ? merged[ii] : new ShapeRoi(single));
+			 }
+		 }
+		 this.setArrayOfRois(roots.stream().mapToInt(Integer::intValue).toArray(), unions.toArray(new ShapeRoi[0]));
+		 
+		 if(this.getClumped() != null) {
+			 for(int ii = removed.size() - 1; ii >= 0; ii--) {
+				 removeFromClumped(removed.get(ii));
+			 }
+		 }
+		 this.removeArrayOfRois(removed.stream().mapToInt(Integer::intValue).toArray());
+		 this.numNodules -= removed.size();
 	 }
 	 
 	 /**
@@ -384,247 +503,130 @@ public class MixedData extends ColorData {
 	    }
 	 
 	 /**
-	  * Merges a mixed nodule roi with a green or red nodule roi if the distance between them is < 1 pixel.
+	  * Merges a mixed nodule roi with the green nodule rois touching it, then with the red nodule
+	  * rois touching it or those greens. A merged roi's own neighbors of the same color are merged
+	  * too. Touching rois are looked up in the graph instead of measuring polygon distances.<br>
+	  * 
+	  * Single nodules are marked for removal from their ColorData, see {@link #removeMerged}. 
+	  * A clump stays in its ColorData and is recorded in clumped[][]; a clump already 
+	  * merged with another mixed nodule isn't merged again.
+	  * 
 	  * @param mixedNodule : mixed roi to union with red or green nodule rois
 	  * @param red : ColorData object carrying all red nodule data 
 	  * @param green : ColorData object carrying all green nodule data
 	  * @param counter : the index of the mixedNodule
+	  * @param graph : which red, green and mixed rois touch.
+	  * @param merged : merged[GREEN][ii] == true ==> green roi ii is a single nodule merged into a mixed nodule. Same for RED.
 	  * @return : a merged mixed nodule roi
 	  */
-	 private ShapeRoi unionNodules(ShapeRoi mixedNodule,ColorData red, ColorData green,int counter) {
-		 	
-		 ShapeRoi returnRoi = mixedNodule;
+	 private ShapeRoi unionNodules(ShapeRoi mixedNodule,ColorData red, ColorData green,int counter, 
+			 RegionAdjacencyGraph graph, boolean[][] merged) {
 		 	
-			 
 			 if(mixedNodule == null) {
 				 System.out.println("============");
 				 System.out.println("mixedRect is null for the given mixed ROI");
 				 return null;
 			 }
 			 
-			 if(green.getRois() != null) {
-				 ShapeRoi[] consideredRois = green.getRois();
-				 returnRoi = unionGreenNodule(red, green, counter, returnRoi, consideredRois);
-			 }
+			 ShapeRoi returnRoi = new ShapeRoi(mixedNodule);
+			 boolean changed = false;
 			 
-			 if( red.getRois() != null) {
-				 ShapeRoi[] consideredRois = red.getRois();
-				 returnRoi = unionRedNodules(red, green, counter, returnRoi, consideredRois);
-			 }
+			 // group[] holds the (color, index) of every roi in the merged nodule so far.
+			 ArrayList<int[]> group = new ArrayList<>();
+			 group.add(new int[] {RegionAdjacencyGraph.MIXED, counter});
 			 
-			
+			 int[] colors = {RegionAdjacencyGraph.GREEN, RegionAdjacencyGraph.RED};
+			 ColorData[] data = {green, red};
+			 
+			 for(int cc = 0; cc < colors.length; cc++) {
+				 int color = colors[cc];
+				 boolean[] seen = new boolean[graph.getCount(color)];
+				 
+				 // every roi in the group, including ones added on the way, is checked for neighbors.
+				 for(int gg = 0; gg < group.size(); gg++) {
+					 int[] member = group.get(gg);
+					 
+					 for(int index : graph.getNeighbors(member[0], member[1], color)) {
+						 if(seen[index] || merged[color][index]) {
+							 continue;
+						 }
+						 seen[index] = true;
+						 
+						 NoduleClump clump = data[cc].getClump(index);
+						 if(clump != null && clump.hasMixed) {
+							 continue;
+						 }
+						 else if(clump != null) {
+							 this.getClumped()[counter][color == RegionAdjacencyGraph.RED ? 0 : 1] = clump.index;
+							 if(color == RegionAdjacencyGraph.RED) {
+								 redClumpIndices.add(clump.index);
+							 }
+							 else {
+								 greenClumpIndices.add(clump.index);
+							 }
+							 clump.hasMixed = true;
+						 }
+						 else {
+							 merged[color][index] = true;
+						 }
+						 
+						 returnRoi.or(new ShapeRoi(data[cc].getRoi(index)));
+						 changed = true;
+						 group.add(new int[] {color, index});
+					 }
+				 }
+			 }
 			 
-			 return returnRoi;
+			 if(!changed) {
+				 return mixedNodule;
+			 }
+			 Roi single = returnRoi.shapeToRoi(); // null ==> the rois only touch at corners, keep it composite.
+			 return single == null ? returnRoi : new ShapeRoi(single);
 	     }
-
-
+	 
+	 
 	 /**
-	  * Uses recursion to iterate through the green nodules, merging them with the mixed nodule if the rois are within 1 pixel.
-	  * @param red : ColorData holding red nodule data
-	  * @param green : ColorData holding green nodule data
-	  * @param counter : index of current mixed nodule roi
-	  * @param mixedNodule : mixed nodule roi
-	  * @param consideredRois : array of green rois still being checked for merging
-	  * @return : mixed nodule roi merged with any green nodule roi within 1 pixel
+	  * Removes the single nodules merged into mixed nodules from their ColorData, and moves the 
+	  * clump indices in clumped[][] down past the removed rois.
+	  * 
+	  * @param color : ColorData to remove the merged rois from.
+	  * @param merged : merged[ii] == true ==> roi ii was merged into a mixed nodule.
+	  * @param column : 0 for red, 1 for green, the column of clumped[][] holding this color's clump indices.
 	  */
-	private ShapeRoi unionGreenNodule(ColorData red, ColorData green, int counter, ShapeRoi mixedNodule, ShapeRoi[] consideredRois) {
-			Polygon mixedRect = mixedNodule.getPolygon();
-			ShapeRoi returnRoi = mixedNodule;
-			ShapeRoi testShapeRoi = new ShapeRoi(mixedNodule);
-		
-			double tempDistance;
-			ShapeRoi testRoi;
-			
-			for( ShapeRoi greenRoi : consideredRois) {
-			int currentRoiIndex = green.getIndex(greenRoi);
-			
-			Polygon greenRect = greenRoi.getPolygon();
-		 	if ( greenRect == null) {
-			 	System.out.println("=========");
-			 	System.out.println(" Green Rect object is null.");
-			 	tempDistance = 51;
-		 	}
-		 	else {
-			 	tempDistance = calculateClosestDistance(mixedRect, greenRect);
-		 	}
-		 	if(tempDistance < 0.5) {
-		 		consideredRois = Arrays.stream(consideredRois).filter(e -> !e.equals(greenRoi)).collect(Collectors.toList()).toArray(new ShapeRoi[0]);
-		 		
-			 	boolean remove = true;
-			 	boolean skip = false;
-			 	for(NoduleClump clump : green.getClumps()) {
-				 	if (clump.index == currentRoiIndex && clump.hasMixed) {
-					 	skip = true;
-					 	remove = false;
-				 	}
-				 	else if (clump.index == currentRoiIndex) {
-					 	greenClumpIndices.add(clump.index);
-					 	this.getClumped()[counter][1] = clump.index;
-							clump.hasMixed = true;
-							remove = false;
-							break;
-						}
-					}
-			 
-			 	if (remove) {
-				 	green.removeRoi(greenRoi);
-				 	
-				 	for(int ii = 0; ii < this.getClumped().length; ii++) {
-				 		if(this.clumped[ii][1] > currentRoiIndex) {
-				 			this.getClumped()[ii][1] -=1;
-				 		}
-				 	}
-				 	
-				 
-			 	}
-			 	if(!skip) {
-			 		testRoi =new ShapeRoi( testShapeRoi.or(new ShapeRoi(greenRoi)).shapeToRoi() );
-				 	returnRoi = testRoi;
-			 		
-			 		return unionGreenNodule(red,green,counter, returnRoi, consideredRois);
-			 	}
-		 	}
-		}
-		return returnRoi;
-	}
-
-	/**
-	  * Uses recursion to iterate through the red nodules, merging them with the mixed nodule if the rois are within 1 pixel. 
-	  * Almost identical to unionGreenNodule.
-	  * @param red : ColorData holding red nodule data
-	  * @param green : ColorData holding green nodule data
-	  * @param counter : index of current mixed nodule roi
-	  * @param mixedNodule : mixed nodule roi
-	  * @param consideredRois : array of green rois still being checked for merging
-	  * @return : mixed nodule roi merged with any green nodule roi within 1 pixel
-	  */
-	private ShapeRoi unionRedNodules( ColorData red, ColorData green, int counter, ShapeRoi mixedNodule, ShapeRoi[] consideredRois) {
-		Polygon mixedRect = mixedNodule.getPolygon();
-		ShapeRoi returnRoi = mixedNodule;
-		ShapeRoi testShapeRoi = new ShapeRoi(mixedNodule);
+	 private void removeMerged(ColorData color, boolean[] merged, int column) {
+		 ArrayList<Integer> indices = new ArrayList<>();
+		 for(int ii = 0; ii < merged.length; ii++) {
+			 if(merged[ii]) {
+				 indices.add(ii);
+			 }
+		 }
+		 if(indices.isEmpty()) {
+			 return;
+		 }
 		 
-		double tempDistance;
-		ShapeRoi testRoi;
-		for( ShapeRoi redRoi : consideredRois) {
-			int currentRoiIndex = red.getIndex(redRoi);
-			Polygon redRect = redRoi.getPolygon();
-		 	if( redRect == null) {
-			 	System.out.println("===========");
-			 	System.out.println("Rect object from Red Nodule ROI is null");
-			 	tempDistance = 51;
-		 	}
+		 color.removeArrayOfRois(indices.stream().mapToInt(Integer::intValue).toArray());
 		 
-		 	else {
-			 	tempDistance = calculateClosestDistance(mixedRect,redRect);
-		 	}
-		 	
-		 	if(tempDistance < 0.5) {
-		 		
-				boolean remove = true;
-				boolean skip = false;
-				consideredRois = Arrays.stream(consideredRois).filter(e -> !e.equals(redRoi)).collect(Collectors.toList()).toArray(new ShapeRoi[0]);
-				
-				for(NoduleClump clump : red.getClumps()) {
-					
-					if(clump.index == currentRoiIndex && clump.hasMixed) {
-						skip = true;
-						remove = false;
-						break;
-					}
-					else if (clump.index == currentRoiIndex) {
-						
-						getClumped()[counter][0] = clump.index;
-						redClumpIndices.add(clump.index);
-						remove = false;
-						clump.hasMixed = true;
-						
-						break;
-					}
-				}
-			
-				if(remove) {
-					red.removeRoi(redRoi);
-					
-					for(int ii = 0; ii < this.getClumped().length; ii++) {
-				 		if(this.getClumped()[ii][0] > currentRoiIndex) {
-				 			this.getClumped()[ii][0] -=1;
-				 		}
-				 	}
-				}
-				
-				if (!skip) {
-					testRoi = new ShapeRoi( testShapeRoi.or(new ShapeRoi(redRoi)).shapeToRoi() );
-					returnRoi = testRoi;
-						
-					}
-					return unionRedNodules(red,green,counter, returnRoi, consideredRois);
-				}
-			
-			}
-		
-		return returnRoi;
-	}
-	  
+		 for(int ii = 0; ii < this.getClumped().length; ii++) {
+			 int clumpIndex = this.getClumped()[ii][column];
+			 if(clumpIndex == -1) {
+				 continue;
+			 }
+			 int below = 0;
+			 for(int index : indices) {
+				 if(index < clumpIndex) {
+					 below++;
+				 }
+			 }
+			 this.getClumped()[ii][column] -= below;
+		 }
+	 }
+	 
+	 
 	/** returns the counts of red and green pixels of the mixed nodule roi at the given index.*/
 	public String roiPixelCount(int index) {
 		return ("red: " +redPixels[index] + ", green: " + greenPixels[index]);
 	}
 
-	 //===================================================================================================
-	/**
-	 * returns the distance between the two line segments.
-	 */
-	private double lineSegmentDistance(double x1, double y1, double x2, double y2, double x3, double y3, double x4, double y4) {
-	            double uA = ((x4 - x3) * (y1 - y3) - (y4 - y3) * (x1 - x3)) / ((y4 - y3) * (x2 - x1) - (x4 - x3) * (y2 - y1));
-	            double uB = ((x2 - x1) * (y1 - y3) - (y2 - y1) * (x1 - x3)) / ((y4 - y3) * (x2 - x1) - (x4 - x3) * (y2 - y1));
-
-	            if (uA >= 0 && uA <= 1 && uB >= 0 && uB <= 1) {
-	                double intersectionX = x1 + uA * (x2 - x1);
-	                double intersectionY = y1 + uA * (y2 - y1);
-	                return Math.sqrt(Math.pow(intersectionX - x1, 2) + Math.pow(intersectionY - y1, 2));
-	            }
-	          
-	            double dist1 = Math.sqrt(Math.pow(x1 - x3, 2) + Math.pow(y1 - y3, 2));
-	            double dist2 = Math.sqrt(Math.pow(x1 - x4, 2) + Math.pow(y1 - y4, 2));
-	            double dist3 = Math.sqrt(Math.pow(x2 - x3, 2) + Math.pow(y2 - y3, 2));
-	            double dist4 = Math.sqrt(Math.pow(x2 - x4, 2) + Math.pow(y2 - y4, 2));
-
-	            return Math.min(Math.min(dist1, dist2), Math.min(dist3, dist4));
-	        }
-	        
-	/**
-     * Returns the distance between the two given polygons.
-     */
-	private double calculateClosestDistance(Polygon polygon1, Polygon polygon2) {
-	            double minDistance = Double.POSITIVE_INFINITY;
-	           
-	            Area area1 = new Area(polygon1);
-	            Area area2 = new Area(polygon2);
-	            area1.intersect(area2);
-	            if(!area1.isEmpty()) {
-	            	return 0;
-	            }
-	            
-	         
-	            
-	            int[] xPoints1 = polygon1.xpoints;
-	            int[] yPoints1 = polygon1.ypoints;
-	            int[] xPoints2 = polygon2.xpoints;
-	            int[] yPoints2 = polygon2.ypoints;
-
-	            // Calculate the distance between all pairs of line segments
-	            for (int i = 0; i < xPoints1.length - 1; i+=1) {
-	                for (int j = 0; j < xPoints2.length - 1; j+=1) {
-	                    double dist = lineSegmentDistance(
-	                            xPoints1[i], yPoints1[i], xPoints1[i + 1], yPoints1[i + 1],
-	                            xPoints2[j], yPoints2[j], xPoints2[j + 1], yPoints2[j + 1]);
-
-	                    minDistance = Math.min(minDistance, dist);
-	                }
-	            }
-	            
-	            return minDistance;
-	        }
 	//========================================================================================
 	        
 	/**
@@ -636,20 +638,22 @@ public class MixedData extends ColorData {
 		int[] colorArea = new int[2];
 		int greenArea = 0;
 		int redArea = 0;
-		ImagePlus im = NoduleSegmentation.image;
-		
+		ImageProcessor ip = this.image.getProcessor();
+		int[] runs = getRaster(roi).getRuns();
 		
-		for(Point p : roi) {
-			
-			int redValue = im.getPixel(p.x, p.y)[0];
-			int greenValue = im.getPixel(p.x, p.y)[1];
-			
-			if(greenValue > redValue *redValue * NoduleData.BOTTOMA + NoduleData.BOTTOMB) {
-				greenArea ++;
-			}
-			
-			else {
-				redArea++;
+		for(int rr = 0; rr < runs.length; rr += 3) {
+			for(int x = runs[rr + 1]; x < runs[rr + 2]; x++) {
+				int rgb = ip.getPixel(x, runs[rr]); // 0 outside the image, same as ImagePlus.getPixel.
+				int redValue = (rgb >> 16) & 0xff;
+				int greenValue = (rgb >> 8) & 0xff;
+				
+				if(greenValue > redValue *redValue * NoduleData.BOTTOMA + NoduleData.BOTTOMB) {
+					greenArea ++;
+				}
+				
+				else {
+					redArea++;
+				}
 			}
 		}
 		colorArea[0] = redArea;
@@ -736,6 +740,44 @@ public class MixedData extends ColorData {
 		
 	}//===================================================
 
+	/**
+	 * Writes the mixed nodules to a bundle: what every ColorData writes, then the red and green
+	 * pixel counts and the clumps each mixed nodule is in.
+	 */
+	@Override
+	void writeTo(DataOutputStream out) throws IOException {
+		super.writeTo(out);
+		SegmentationBundle.writeInts(out, redPixels);
+		SegmentationBundle.writeInts(out, greenPixels);
+		
+		out.writeInt(clumped == null ? -1 : clumped.length);
+		if(clumped != null) {
+			for(int[] clump : clumped) {
+				out.writeInt(clump[0]);
+				out.writeInt(clump[1]);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Reads what {@link #writeTo} wrote.
+	 */
+	@Override
+	void readFrom(DataInputStream in) throws IOException {
+		super.readFrom(in);
+		this.redPixels = SegmentationBundle.readInts(in);
+		this.greenPixels = SegmentationBundle.readInts(in);
+		
+		int n = in.readInt();
+		this.clumped = n < 0 ? null : new int[n][2];
+		for(int ii = 0; ii < n; ii++) {
+			clumped[ii][0] = in.readInt();
+			clumped[ii][1] = in.readInt();
+		}
+	}
+	
+	
 	/**
 	 * public getter method for clumped nodules array.
 	 */
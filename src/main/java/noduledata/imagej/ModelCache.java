@@ -0,0 +1,186 @@
+package noduledata.imagej;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ij.IJ;
+import trainableSegmentation.unsupervised.ColorClustering;
+import trainableSegmentation.unsupervised.ColorClustering.Channel;
+import weka.clusterers.AbstractClusterer;
+
+
+/**
+ * Keeps the clusterers read from .model files in memory, so a batch of images only reads each
+ * .model file from disk once. Entries are keyed by the file's path and last modified time; a
+ * model file that changes on disk is read again the next time it's asked for.
+ *
+ * The loaded clusterer itself is never evaluated. Weka clusterers keep scratch state while
+ * clustering an instance (SimpleKMeans filters missing values through a stateful filter), so
+ * each worker thread gets its own in-memory copy the first time it asks for a model.
+ *
+ * Compiled models ({@link ClusterLut}) are cached the same way, and are also saved next to the
+ * .model file so later runs don't need to compile them again.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class ModelCache {
+
+	private static final Map<String, Entry> cache = new ConcurrentHashMap<>();
+	private static final Map<String, CompiledEntry> compiled = new ConcurrentHashMap<>();
+
+
+	/**
+	 * A loaded model and the per-thread copies handed out from it.
+	 */
+	private static class Entry {
+		final long modified;
+		final AbstractClusterer clusterer;
+		final ThreadLocal<AbstractClusterer> copies;
+
+		Entry(long modified, AbstractClusterer clusterer) {
+			this.modified = modified;
+			this.clusterer = clusterer;
+			this.copies = ThreadLocal.withInitial(() -> copy(clusterer));
+		}
+	}
+
+
+	/**
+	 * A compiled model and the last modified time of the .model file it came from.
+	 */
+	private static class CompiledEntry {
+		final long modified;
+		final ClusterLut lut;
+
+		CompiledEntry(long modified, ClusterLut lut) {
+			this.modified = modified;
+			this.lut = lut;
+		}
+	}
+
+
+	private ModelCache() {}
+
+
+	/**
+	 * Loads the given .model file into the given ColorClustering object, reading it from disk only if
+	 * it isn't cached yet or has changed since it was read.
+	 *
+	 * @param cluster : cluster object to load the clusterer into.
+	 * @param path : path to the .model file.
+	 * @return : true if a clusterer was loaded, false otherwise.
+	 */
+	public static boolean load(ColorClustering cluster, String path) {
+		Entry entry = get(cluster, path);
+
+		if(entry == null) {
+			return false;
+		}
+		cluster.setTheClusterer(entry.copies.get());
+		return true;
+	}
+
+
+	/**
+	 * Returns the cached entry for the given path, reading the file if needed.
+	 */
+	private static Entry get(ColorClustering cluster, String path) {
+		File file = new File(path);
+		String key = file.getAbsolutePath();
+		long modified = file.lastModified();
+
+		Entry entry = cache.get(key);
+		if(entry != null && entry.modified == modified) {
+			return entry;
+		}
+
+		synchronized(ModelCache.class) {
+			entry = cache.get(key);
+			if(entry != null && entry.modified == modified) {
+				return entry;
+			}
+
+			if(!cluster.loadClusterer(path) || cluster.getTheClusterer() == null) {
+				IJ.log("Could not load clusterer from " + path);
+				return null;
+			}
+
+			entry = new Entry(modified, cluster.getTheClusterer());
+			cache.put(key, entry);
+			IJ.log("Loaded clusterer " + file.getName());
+			return entry;
+		}
+	}
+
+
+	/**
+	 * Returns the given .model file compiled into a lookup table for the given channels. The table is
+	 * read from its .lut file if one was saved for this version of the .model file, and compiled
+	 * (then saved) otherwise.
+	 *
+	 * @param path : path to the .model file.
+	 * @param channels : channels the model clusters on.
+	 * @return : the compiled model, or null if the channels can't be compiled or the model can't be loaded.
+	 */
+	public static ClusterLut compiled(String path, ArrayList<Channel> channels) {
+		if(!ClusterLut.supports(channels)) {
+			return null;
+		}
+
+		File file = new File(path);
+		String key = file.getAbsolutePath() + channels;
+		long modified = file.lastModified();
+
+		CompiledEntry entry = compiled.get(key);
+		if(entry != null && entry.modified == modified) {
+			return entry.lut;
+		}
+
+		synchronized(ModelCache.class) {
+			entry = compiled.get(key);
+			if(entry != null && entry.modified == modified) {
+				return entry.lut;
+			}
+
+			File lutFile = ClusterLut.fileFor(file.getAbsolutePath(), channels);
+			ClusterLut lut = ClusterLut.load(lutFile, modified);
+
+			if(lut == null) {
+				ColorClustering cluster = new ColorClustering(ClusterLut.grid());
+				if(!load(cluster, path)) {
+					return null;
+				}
+				lut = ClusterLut.compile(cluster, channels);
+				lut.save(lutFile, modified);
+				IJ.log("Compiled clusterer " + file.getName());
+			}
+
+			compiled.put(key, new CompiledEntry(modified, lut));
+			return lut;
+		}
+	}
+
+
+	/**
+	 * Removes every cached model. Saved .lut files are kept.
+	 */
+	public static void clear() {
+		cache.clear();
+		compiled.clear();
+	}
+
+
+	/**
+	 * Makes an in-memory copy of the given clusterer.
+	 */
+	private static AbstractClusterer copy(AbstractClusterer clusterer) {
+		try {
+			return (AbstractClusterer) AbstractClusterer.makeCopy(clusterer);
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not copy clusterer.", e);
+		}
+	}
+}
@@ -2,6 +2,7 @@ package noduledata.imagej;
 
 
 import fiji.util.gui.GenericDialogPlus;
+
 import javax.swing.ImageIcon;
 
 import ij.IJ;
@@ -26,6 +27,7 @@ public class NoduleClump {
 		public double area;
 		public int numNodules;
 		public boolean hasMixed = false;
+		private boolean headless = false; // true ==> never ask the user anything.
 		
 	
 		public NoduleClump() {
@@ -54,12 +56,25 @@ public class NoduleClump {
 			
 		}
 		
+		/**
+		 * Sets whether this clump may ask the user for input, the same as its ColorData.
+		 * @param headless : true to run without any user interaction.
+		 */
+		public void setHeadless(boolean headless) {
+			this.headless = headless;
+		}
+		
+		
 		/**
 		 * Prompts the user to correct the number of nodules within the clump.
 		 * @param image : image with roi of interest outlined.
-		 * @return : the number of nodules thought to be in the outlined Roi.
+		 * @return : the number of nodules thought to be in the outlined Roi, or -1 
+		 * if running headless.
 		 */
 		private int userInput(ImagePlus image) {
+			if(headless) {
+				return -1;
+			}
 			boolean retry = true;
 			boolean scale = false;
 			ImagePlus scaledImage = new ImagePlus();
@@ -2,16 +2,14 @@ package noduledata.imagej;
 
 
 import java.awt.Color;
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.BitSet;
 
 
-import javax.swing.JFileChooser;
 
 import java.io.File;
+import java.io.IOException;
 
 
 
@@ -22,18 +20,11 @@ import ij.ImageStack;
 import ij.process.ImageProcessor;
 import ij.process.ColorProcessor;
 import ij.process.ByteProcessor;
-import ij.process.ColorSpaceConverter;
-import ij.process.FloatProcessor;    
 import ij.gui.Roi;
 
-import ij.WindowManager;
-import ij.plugin.filter.ThresholdToSelection;
-import ij.plugin.frame.RoiManager;		
 
-import ij.process.ImageConverter;
 
 
-import weka.core.Attribute;
 import weka.core.Instances;
 import trainableSegmentation.FeatureStackArray;
 import trainableSegmentation.unsupervised.ColorClustering;
@@ -70,8 +61,8 @@ public class NoduleData {
 	protected final static double BOTTOMB = 45;
 	protected final static double TOPCUTOFFSLOPE = 1;
 	protected final static double TOPB = 25; 
-	private final double RLINE = 180;
-	private final double GLINE = 240;
+	protected final static double RLINE = 180;
+	protected final static double GLINE = 240;
 	private final double initialSegmentationSlope = -1.58;
 	private final double initialSegmentationB = 195;
 	
@@ -80,10 +71,17 @@ public class NoduleData {
 	private MixedData mixed;
 	private float averageGreenLightness;
 	private float averageRedLightness;
-	private RoiManager manager = new RoiManager();
-	private Instances instances;      
+	private Instances instances = null; // built lazily, see getInstances().
+	private byte[] initialAssignments;  // binary map values straight after clustering, 0 ==> nodule.
 	private FeatureStackArray fsa;     
 	private ColorClustering CCcluster;
+	private boolean headless = false;
+	private String redModel = null;
+	private PixelClassMap classMap;     // which pixels are red, green and mixed nodules.
+	private ChannelProvider channels;   // RGB and grey pixels of the image, made when first needed.
+	private boolean compiledModels;     // true ==> models are evaluated as compiled lookup tables when they can be.
+	
+	private static final int REDREACH = 15; // the red ONLY model only looks this many pixels around the nodules found so far.
 	
 	
 	public ImagePlus binarymap = null; // has floatProcessor
@@ -100,41 +98,61 @@ public class NoduleData {
  */
 //======================================================
 	public NoduleData(ColorClustering cluster,int redSingle, int greenSingle, int mixedSingle) throws IllegalStateException {
+		this(cluster, null, redSingle, greenSingle, mixedSingle);
+	}
+	
+	
+/** generate a segmentation map using a compiled model when one is given, otherwise using the 
+ * ColorClustering model. Initiates the ColorData objects 
+ * @param cluster : cluster object with a loaded image and .model file. 
+ * @param lut : the same model compiled for the cluster's channels, or null to run the clusterer on every pixel.
+ * @param redSingle : the upper bound on how large a red nodule can be before assuming it's a clump
+ * @param greenSingle : same as above but for green nodules.
+ * @param mixedSingle : same as above but for mixed nodules.
+ */
+//======================================================
+	public NoduleData(ColorClustering cluster, ClusterLut lut, int redSingle, int greenSingle, int mixedSingle) throws IllegalStateException {
 		
 	
 		this.CCcluster = cluster;
 		this.image = cluster.getImage();
+		this.channels = new ChannelProvider(image);
+		this.compiledModels = lut != null;
 
 		cluster.setNumSamples(image.getWidth() * image.getHeight());
-		this.fsa = new FeatureStackArray(image.getStackSize());
-		
-		fsa = cluster.createFSArray(image);
-		
-		ImagePlus binarymap = cluster.createProbabilityMaps(fsa); // intensive
 		
-		// overwriting map with new map object that has only one image in the Stack. 
-		// originally comes with 2 binary images, one an invert of the other.
-		ImageStack mapStack = binarymap.getStack();
-		mapStack.deleteSlice(1);
-		this.binarymap = new ImagePlus("1d", mapStack.getProcessor(1));
+		if(lut != null) {
+			this.binarymap = lut.segment(image);
+		}
+		else {
+			this.fsa = new FeatureStackArray(image.getStackSize());
+			
+			fsa = cluster.createFSArray(image);
+			
+			ImagePlus binarymap = cluster.createProbabilityMaps(fsa); // intensive
+			
+			// overwriting map with new map object that has only one image in the Stack. 
+			// originally comes with 2 binary images, one an invert of the other.
+			ImageStack mapStack = binarymap.getStack();
+			mapStack.deleteSlice(1);
+			this.binarymap = new ImagePlus("1d", mapStack.getProcessor(1));
+		}
 		
 		if(greenSingle == 0 || redSingle == 0 || mixedSingle == 0) {
 			throw new IllegalStateException("Cannot have 0 as the upper bound for nodule areas.");
 		}
 		
-		this.green = new ColorData(manager,GREEN, greenSingle, this.image);
-		
-		this.red = new ColorData(manager, RED, redSingle, this.image);
+		this.green = new ColorData(GREEN, greenSingle, this.image);
 		
-		this.mixed = new MixedData(manager,YELLOW, mixedSingle, this.image);
+		this.red = new ColorData(RED, redSingle, this.image);
 		
+		this.mixed = new MixedData(YELLOW, mixedSingle, this.image);
 		
-		cluster.createFeatures();	// intensive
 		
-		this.instances = CCcluster.getFeaturesInstances();
+		// one instance per pixel. The Weka Instances object is only built if getAssignmentsRandom() needs it.
+		this.numInstances = image.getWidth() * image.getHeight();
 		
-		
-		this.numInstances = instances.numInstances();
+		this.initialAssignments = getAssignments(this.binarymap);
 
 		System.out.println("=============================");
 		System.out.println(this.image.getTitle());
@@ -142,6 +160,31 @@ public class NoduleData {
 	}
 	
 	
+//  =======================================================	
+	/**
+	 * When headless, no dialogs are shown: the red-only model is only used if one was given 
+	 * with {@link #setRedModel(String)}, every candidate mixed nodule is kept, and the output 
+	 * is saved without going through the correction UI.
+	 * @param headless : true to run without any user interaction.
+	 */
+	public void setHeadless(boolean headless) {
+		this.headless = headless;
+		this.red.setHeadless(headless);
+		this.green.setHeadless(headless);
+		this.mixed.setHeadless(headless);
+	}
+	
+	
+	/**
+	 * Sets the red ONLY clusterer model used to catch more red nodule pixels in dim images.
+	 * Without one that step is skipped; the user is never asked for it mid-analysis.
+	 * @param redModel : path to the .model file.
+	 */
+	public void setRedModel(String redModel) {
+		this.redModel = redModel;
+	}
+	
+	
 //  =======================================================	
 	/**
 	 * Get's the cluster assignments for all pixels in the given image from the buffered image.
@@ -171,6 +214,7 @@ public class NoduleData {
      int[] getAssignmentsRandom() {
 
     	 int[] clusterAssignments = new int[numInstances];
+    	 Instances instances = getInstances();
     	
  		for (int ii = 0; ii < numInstances; ii++) {
 			try {
@@ -183,6 +227,21 @@ public class NoduleData {
      }//==========================
      
      
+//   ===============================
+     /**
+      * Builds the Weka Instances object holding one instance per pixel on first use. 
+      * This is millions of objects on large scans, so the pipeline itself never calls this.
+      * @return : the features of every pixel as Weka instances.
+      */
+     private Instances getInstances() {
+    	 if(this.instances == null) {
+    		 CCcluster.createFeatures();	// intensive
+    		 this.instances = CCcluster.getFeaturesInstances();
+    	 }
+    	 return this.instances;
+     }//==========================
+     
+     
 //  =====================================
      /**
       * Creates a binary map with black being segmented nodules and white being background. 
@@ -192,62 +251,21 @@ public class NoduleData {
  		
  		byte[] clusterAssignments = getAssignments(this.binarymap);
  		
- 		int[] greenPixelIndices = new int[numInstances];
- 		int[] redPixelIndices = new int[numInstances];
- 		int[] mixedPixelIndices = new int[numInstances];
- 		
- 		int numGreenPixels = 0;
- 		int numRedPixels = 0;
- 		int numMixedPixels = 0;
- 		
- 		//============================================
- 		// generates list of indices of nodule pixel locations w.r.t. clusterAssignments/Instances object.
- 		List<Integer> indicesList = new ArrayList<>();
- 		for (int ii = 0; ii < numInstances; ii++) {
- 			if (clusterAssignments[ii] == 0) { // == 0 ==> segmented nodule pixel.
- 				indicesList.add(ii);
- 			}
- 		}
- 		int[] nodulePixelIndices = indicesList.stream().mapToInt(Integer::intValue).toArray();
- 		
- 		
  		if(averageRedLightness <82) {
- 			nodulePixelIndices = improveRedNoduleSegmentation(nodulePixelIndices);
+ 			improveRedNoduleSegmentation(clusterAssignments);
  		}
  		
- 		// indices of all the nodule pixels w.r.t. clusterAssignments
- 		//===============================================================================
- 		
- 		
  		//===================================================================================
- 		// cycle through all nodule pixels, categorizing them according to segmentation line.
- 		for (int ii = 0; ii < nodulePixelIndices.length; ii++) {
- 			int loc = nodulePixelIndices[ii];
- 			
- 			double gValue = image.getPixel(loc % image.getWidth(), (int)(loc)/image.getWidth())[1];
- 			double rValue = image.getPixel(loc % image.getWidth(), (int)(loc)/image.getWidth())[0];
- 			
- 			if (gValue > (rValue * TOPCUTOFFSLOPE + TOPB) || gValue > GLINE) {
- 				greenPixelIndices[numGreenPixels] = loc; 
- 				numGreenPixels++;
- 			}
- 			else if (gValue < (rValue * rValue * BOTTOMA + BOTTOMB) || rValue > RLINE) {
- 				redPixelIndices[numRedPixels] = loc; 
- 				numRedPixels++;
- 			}
- 			else {
- 				mixedPixelIndices[numMixedPixels] = loc;
- 				numMixedPixels++;
- 			}
- 		}//===================================================
+ 		// categorizes all nodule pixels according to segmentation line.
+ 		int[] rgb = channels.getRGB();
+ 		PixelClassifier classes = PixelClassifier.run(rgb, clusterAssignments, image.getWidth(), image.getHeight());
  		
- 		// resizing the arrays.
- 		int[] greenNodsT = new int[numGreenPixels];
- 		System.arraycopy(greenPixelIndices, 0, greenNodsT, 0, numGreenPixels);
- 		int[] redNodsT = new int[numRedPixels];
- 		System.arraycopy(redPixelIndices, 0, redNodsT, 0, numRedPixels);
- 		int[] mixedNodsT = new int[numMixedPixels];
- 		System.arraycopy(mixedPixelIndices, 0, mixedNodsT, 0, numMixedPixels);
+ 		int[] greenNodsT = classes.green;
+ 		int[] redNodsT = classes.red;
+ 		int[] mixedNodsT = classes.mixed;
+ 		int numGreenPixels = greenNodsT.length;
+ 		int numRedPixels = redNodsT.length;
+ 		int numMixedPixels = mixedNodsT.length;
  		
  		
  		green.setPixels(greenNodsT);
@@ -262,9 +280,11 @@ public class NoduleData {
  		IJ.log("=========================================");
  	
  		
- 		red.setMap(createMap(redNodsT,RED));
- 		green.setMap(createMap(greenNodsT, GREEN));
- 		mixed.setMap(createMap(mixedNodsT, YELLOW));
+ 		// one byte per pixel for all three types, RGB maps are only rendered when needed.
+ 		this.classMap = new PixelClassMap(classes.classes, image.getWidth(), image.getHeight());
+ 		red.setMap(classMap);
+ 		green.setMap(classMap);
+ 		mixed.setMap(classMap);
  	}//=============================================================================
      
  	
@@ -276,39 +296,15 @@ public class NoduleData {
  	 */
  	private Roi[] getRois(ImagePlus newmap) {
  		
- 		manager.setEnabled(true);
-    	manager.reset();
-    	newmap.show();
-    	
-    	try {
-    		newmap.getProcessor().setAutoThreshold("Default"); //intensive
-    	}catch(Exception e) {
-    		System.out.println("autothreshold did not work.");
-    		e.printStackTrace();
-    	}
- 		Roi tempRoi = ThresholdToSelection.run(newmap);        // outline all nodules as one ROI.
- 		
+		ComponentLabeler nodules = ComponentLabeler.label(ComponentLabeler.foreground(newmap.getProcessor()), 
+				newmap.getWidth(), newmap.getHeight(), true);
  		
- 		if( tempRoi ==null) {
+ 		if( nodules.getCount() == 0) {
  			System.out.println("No ROI found.");
 				return null;
  		}
  		
- 		manager.add(newmap,tempRoi,0); 
- 			
- 		
- 		manager.select(0);			 // select all nodules as one ROI
- 		if(manager.getRoi(0).getType()== Roi.COMPOSITE) { // composite ==> spacially separate roi's
-			manager.runCommand("split"); // split ROI into pieces.
-			int[] temp = {0};			 // selecting roi[0], which is all nodules as one roi.
-			manager.setSelectedIndexes(temp);
-			manager.runCommand("delete");// deleting that ^^^^
-		}
- 	
- 		Roi[] rois = manager.getRoisAsArray();
- 		manager.reset();
- 		manager.close();
- 		return rois;
+ 		return nodules.getRois(); // one roi per spacially separate nodule.
  		
  	}
  	
@@ -351,26 +347,31 @@ public class NoduleData {
 //  ========================================
  	/**
  	 * Helper function to count the number of segmented green nodules.
- 	 * @param rois : array of all segmented nodules.
+ 	 * @param rois : pixels of all segmented nodules.
  	 * @return : boolean array returning true if the roi is green and false otherwise.
  	 */
- 	private boolean[] greenRoi(Roi[] rois) {
+ 	private boolean[] greenRoi(RunLengthRoi[] rois) {
  		
  		boolean[] greenRois = new boolean[rois.length];
+ 		int[] pixels = channels.getRGB();
+ 		int width = image.getWidth();
  		
  		for(int ii = 0; ii < rois.length ;ii++) {
- 			Roi roi = rois[ii];
+ 			int[] runs = rois[ii].getRuns();
  			
  			int numGreen = 0;
  			
  			
- 			for(Point p : roi.getContainedPoints()) {
- 				double gValue = image.getPixel(p.x, p.y)[1];
- 	 			double rValue = image.getPixel(p.x, p.y)[0];
- 	 			
- 	 			if (gValue > (rValue *rValue* BOTTOMA + BOTTOMB)) {
- 	 				numGreen++;
- 	 			}
+ 			for(int rr = 0; rr < runs.length; rr += 3) {
+ 				for(int x = runs[rr + 1]; x < runs[rr + 2]; x++) {
+ 					int rgb = pixels[runs[rr] * width + x];
+ 					double gValue = (rgb >> 8) & 0xff;
+ 					double rValue = (rgb >> 16) & 0xff;
+ 					
+ 					if (gValue > (rValue *rValue* BOTTOMA + BOTTOMB)) {
+ 						numGreen++;
+ 					}
+ 				}
  			}
  			
  			if(numGreen > 50 ) {
@@ -396,30 +397,48 @@ public class NoduleData {
 //  ==========================================
 	/**
 	 * calculates the average lightness of all nodules within the image.
-	 * @param rois : array of nodule rois.
+	 * The lightness of a pixel is the weighted sum of its channels, what converting the image to
+	 * float gives, read from a table per channel at the nodule pixels only.
+	 * @param rois : pixels of the nodule rois.
 	 */
- 	public void averageLightness(Roi[] rois) {
+ 	public void averageLightness(RunLengthRoi[] rois) {
  		
- 		ImageStack channelStack = getChannelGreyscales(new String[] {"L",}, this.image);
- 		FloatProcessor light = channelStack.getProcessor(1).convertToFloatProcessor();
+ 		double[] weights = ColorProcessor.getWeightingFactors();
+ 		if(image.getProcessor() instanceof ColorProcessor && ((ColorProcessor) image.getProcessor()).getRGBWeights() != null) {
+ 			weights = ((ColorProcessor) image.getProcessor()).getRGBWeights();
+ 		}
+ 		double[][] light = new double[3][256];
+ 		for(int value = 0; value < 256; value++) {
+ 			for(int channel = 0; channel < 3; channel++) {
+ 				light[channel][value] = value * weights[channel];
+ 			}
+ 		}
  		double tempB = (TOPB + BOTTOMB) / 2;
  		double tempM = .69;
  		int numRedPixels = 0;
  		int numGreenPixels = 0;
  		float redLightness = 0;
  		float greenLightness = 0;
- 		for(Roi roi : rois) {
+ 		int[] pixels = channels.getRGB();
+ 		int width = image.getWidth();
+ 		for(RunLengthRoi roi : rois) {
  			
- 			for(Point p : roi.getContainedPoints()) {
- 				int rValue = this.image.getPixel(p.x, p.y)[0];
- 				int gValue = this.image.getPixel(p.x, p.y)[1];
- 				if(gValue > (rValue*tempM + tempB)) {
- 					numGreenPixels++;
- 					greenLightness+=light.getf(p.x, p.y);
- 				}
- 				else {
- 					numRedPixels++;
- 					redLightness+=light.getf(p.x, p.y);
+ 			int[] runs = roi.getRuns();
+ 			for(int rr = 0; rr < runs.length; rr += 3) {
+ 				int y = runs[rr];
+ 				for(int x = runs[rr + 1]; x < runs[rr + 2]; x++) {
+ 					int rgb = pixels[y * width + x];
+ 					int rValue = (rgb >> 16) & 0xff;
+ 					int gValue = (rgb >> 8) & 0xff;
+ 					float lightness = (float) (light[0][rValue] + light[1][gValue] + light[2][rgb & 0xff]);
+ 					if(gValue > (rValue*tempM + tempB)) {
+ 						numGreenPixels++;
+ 						greenLightness+=lightness;
+ 					}
+ 					else {
+ 						numRedPixels++;
+ 						redLightness+=lightness;
+ 					}
  				}
  			}
  			
@@ -459,10 +478,18 @@ public class NoduleData {
     	 boolean[] loosenGreenThreshold;
     	 ImagePlus tempMap = new ImagePlus("temp", this.binarymap.getProcessor());
     	 Roi[] rois = getRois(tempMap);
-    	 averageLightness(rois);
+    	 if(rois == null) {
+    		 IJ.log("no ROi's found.");
+    		 return;
+    	 }
+    	 RunLengthRoi[] rasters = new RunLengthRoi[rois.length];
+    	 for(int ii = 0; ii < rois.length; ii++) {
+    		 rasters[ii] = RunLengthRoi.of(rois[ii]);
+    	 }
+    	 averageLightness(rasters);
     	 
     	 if(this.GREEN_LIGHT_SECTION < this.LIGHT_SECTION_TWO) {
-    		 loosenGreenThreshold = greenRoi(rois);
+    		 loosenGreenThreshold = greenRoi(rasters);
     	 }
     	 else {
     		 loosenGreenThreshold = new boolean[rois.length];
@@ -477,17 +504,29 @@ public class NoduleData {
     	int greenThreshold = 80;
     	
  		ByteProcessor byteMap =  binarymap.getProcessor().convertToByteProcessor();
- 		ByteProcessor byteImage = this.image.getProcessor().convertToByteProcessor();
- 		ImageProcessor coloredMap = binarymap.getProcessor().convertToRGB();
- 		boolean adjacent = false;
+  		
+ 		int width = byteMap.getWidth();
+ 		int height = byteMap.getHeight();
+ 		byte[] map = (byte[]) byteMap.getPixels();
+ 		byte[] grey = channels.getGrey();
+ 		int[] rgb = channels.getRGB();
+ 		BitSet visited = new BitSet(width * height); // every pixel is looked at once, by the first nodule to reach it.
+ 		
+ 		// a nodule only queues pixels inside its rectangle, each once, so the largest rectangle bounds the queue.
+ 		Rectangle[] clipped = new Rectangle[roiRects.length];
+ 		int largest = 0;
+ 		for(int kk = 0; kk < roiRects.length; kk++) {
+ 			clipped[kk] = roiRects[kk].intersection(new Rectangle(width, height));
+ 			if(!clipped[kk].isEmpty()) {
+ 				largest = Math.max(largest, clipped[kk].width * clipped[kk].height);
+ 			}
+ 		}
+ 		int[] queue = new int[largest];
  		
  		boolean[] sigAddition = new boolean[roiRects.length];
  		
  		for(int kk = 0; kk < roiRects.length; kk++) {
- 			Rectangle rect = roiRects[kk];
- 			
- 			int pink = (255 << 24) | (255 << 16) | (192 << 8) | 203;
- 			int red = (255 << 24) | (255 << 16) | (0 << 8) | 0;
+ 			Rectangle rect = clipped[kk];
  			
  		    //============================
  			if(loosenGreenThreshold[kk]) {
@@ -513,49 +552,7 @@ public class NoduleData {
  				
  			}//=====================
  			
- 			int pixelsAdded = 0;
- 			
- 		for( int ii = 0; ii < rect.height; ii++) {
- 			int y = rect.y +ii;
- 			for(int jj = 0; jj < rect.width; jj++) {
- 				int x = rect.x + jj;
- 				double rValue = image.getPixel(x, y)[0];
- 	 			double gValue = image.getPixel(x, y)[1];
- 	 			
- 				double value = byteImage.getValue(x, y);
- 				
- 				if(byteMap.getValue(x, y) == 0) {
- 					continue;
- 				}
- 				if(  byteMap.getValue(x+1, y) == 0) {
- 					adjacent = true;
- 				}
- 				if(byteMap.getValue(x-1, y) ==0) {
- 					adjacent = true;
- 				}
- 				if(byteMap.getValue(x, y+1) == 0) {
- 					adjacent = true;
- 				}
- 				if(byteMap.getValue(x, y-1) == 0) {
- 					adjacent=true;
- 				}
- 				
- 				if(value > 50 && adjacent) {
- 					coloredMap.putPixel(x, y, red);
- 					byteMap.putPixelValue(x, y, 0);
- 				}
- 				
- 				else if(rValue > 120 || gValue > greenThreshold) {
- 					
- 					coloredMap.putPixel(x, y, pink);
- 					byteMap.putPixelValue(x, y, 0);
- 					pixelsAdded++;
- 				}
- 				
- 				adjacent = false;
- 			}
- 			
- 		}
+ 			int pixelsAdded = growNodule(rasters[kk], rect, greenThreshold, map, grey, rgb, width, visited, queue);
  		
  		if(pixelsAdded > 1000) {
  			sigAddition[kk] = true;
@@ -567,8 +564,7 @@ public class NoduleData {
  		
  		greenThreshold = 80;
  		
- 		}//cycle through rectangles.
- 		WindowManager.closeAllWindows();
+ 		}//cycle through nodules.
  		
  		ImagePlus newBinaryMap = new ImagePlus("updated", byteMap);
  		
@@ -577,100 +573,242 @@ public class NoduleData {
      }//==========================================================
      
      
+//   ====================================
+     /**
+      * Grows one nodule on the map outward from its edge. Background pixels next to the nodule are 
+      * added if they're light enough or red or green enough, and the pixels next to those are 
+      * looked at in turn, until nothing more is added or the rectangle around the nodule is left.
+      * 
+      * @param nodule : pixels of the nodule.
+      * @param rect : the nodule can't grow past this rectangle.
+      * @param greenThreshold : green value above which a pixel is a nodule pixel.
+      * @param map : binary map, 0 for nodule pixels. Grown in place.
+      * @param grey : greyscale image.
+      * @param rgb : color image.
+      * @param width : width of the image.
+      * @param visited : pixels already looked at, shared by every nodule of the image.
+      * @param queue : room for the pixels waiting to be looked at, at least as many as there are in rect.
+      * @return : the number of pixels added for being red or green enough.
+      */
+     private static int growNodule(RunLengthRoi nodule, Rectangle rect, int greenThreshold, byte[] map, 
+    		 byte[] grey, int[] rgb, int width, BitSet visited, int[] queue) {
+    	 
+    	 int head = 0;
+    	 int tail = 0;
+    	 int[] runs = nodule.getRuns();
+    	 
+    	 // background pixels touching the nodule.
+    	 for(int rr = 0; rr < runs.length; rr += 3) {
+    		 int y = runs[rr];
+    		 for(int x = Math.max(runs[rr + 1], rect.x); x < Math.min(runs[rr + 2], rect.x + rect.width); x++) {
+    			 if(y < rect.y || y >= rect.y + rect.height || map[y * width + x] != 0) {
+    				 continue;
+    			 }
+    			 tail = push(x + 1, y, rect, map, width, visited, queue, tail);
+    			 tail = push(x - 1, y, rect, map, width, visited, queue, tail);
+    			 tail = push(x, y + 1, rect, map, width, visited, queue, tail);
+    			 tail = push(x, y - 1, rect, map, width, visited, queue, tail);
+    		 }
+    	 }
+    	 
+    	 int pixelsAdded = 0;
+    	 while(head < tail) {
+    		 int index = queue[head++];
+    		 int rValue = (rgb[index] >> 16) & 0xff;
+    		 int gValue = (rgb[index] >> 8) & 0xff;
+    		 
+    		 if((grey[index] & 0xff) > 50) {
+    			 map[index] = 0;
+    		 }
+    		 else if(rValue > 120 || gValue > greenThreshold) {
+    			 map[index] = 0;
+    			 pixelsAdded++;
+    		 }
+    		 else {
+    			 continue;
+    		 }
+    		 
+    		 int x = index % width;
+    		 int y = index / width;
+    		 tail = push(x + 1, y, rect, map, width, visited, queue, tail);
+    		 tail = push(x - 1, y, rect, map, width, visited, queue, tail);
+    		 tail = push(x, y + 1, rect, map, width, visited, queue, tail);
+    		 tail = push(x, y - 1, rect, map, width, visited, queue, tail);
+    	 }
+    	 return pixelsAdded;
+     }
+     
+     
+     /**
+      * Queues the pixel if it's a background pixel inside the rectangle nobody has looked at yet.
+      * @return : the new end of the queue.
+      */
+     private static int push(int x, int y, Rectangle rect, byte[] map, int width, BitSet visited, int[] queue, int tail) {
+    	 if(x < rect.x || x >= rect.x + rect.width || y < rect.y || y >= rect.y + rect.height) {
+    		 return tail;
+    	 }
+    	 int index = y * width + x;
+    	 if(map[index] == 0 || visited.get(index)) {
+    		 return tail;
+    	 }
+    	 visited.set(index);
+    	 queue[tail] = index;
+    	 return tail + 1;
+     }
+     
+     
      
 //   ================================================================
      /**
-      * Algorithm to catch more red nodule pixels after the initial segmentation.
-      * @param nodulePixels : array of all pixels that are currently segmented nodule pixels.
-      * @return : improved array of segmented nodule pixels.
+      * Algorithm to catch more red nodule pixels after the initial segmentation. The red ONLY model 
+      * is only evaluated within REDREACH pixels of the nodule pixels found so far, as a compiled 
+      * lookup table when the main model was compiled too.
+      * @param assignments : cluster assignments of all pixels, 0 ==> segmented nodule pixel. 
+      * Pixels the red model finds are set to 0 in place.
       */
-     private int[] improveRedNoduleSegmentation(int[] nodulePixels) {
+     private void improveRedNoduleSegmentation(byte[] assignments) {
     	 
-    	ArrayList<Channel> channels = new ArrayList<Channel>(); 
-     	channels.add(Channel.Red);
-     	
-    	ColorClustering cluster = new ColorClustering(image);
+    	if(this.redModel == null) {
+    		IJ.log("No red ONLY clusterer model was given. "
+    				+ "The program continues without this optimization.");
+    		return;
+    	}
     	
-    	File file = null;
-		
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Choose a Red ONLY clusterer model.");
-        fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
-        fileChooser.showOpenDialog(null);
-
-        String extension = fileChooser.getSelectedFile().getName().substring(fileChooser.getSelectedFile().getName().lastIndexOf(".") + 1);
-        
-        if(extension.equalsIgnoreCase("model")) {
-        	file = fileChooser.getSelectedFile();
-        }
-        else {
-        	IJ.log("Sorry, but the file you selected is not valid. "
-        			+ "The program continues without this optimization.");
-    	   return nodulePixels;
-        }
-        
-       if(file == null) {
-    	   IJ.log("Sorry, but the file you selected is not valid."
-    	   		+ "The program continues without this optimization.");
-    	   return nodulePixels;
-       }
-       
-		cluster.loadClusterer(file.getAbsolutePath());
-		cluster.setChannels(channels);
-		cluster.setNumSamples(image.getWidth() * image.getHeight());
+    	ArrayList<Channel> redChannels = new ArrayList<Channel>(); 
+     	redChannels.add(Channel.Red);
+     	
+     	int width = image.getWidth();
+     	int height = image.getHeight();
+     	int[] rgb = channels.getRGB();
+     	byte[] near = neighborhood(assignments, width, height, REDREACH);
+     	
+     	ClusterLut lut = compiledModels ? ModelCache.compiled(this.redModel, redChannels) : null;
+     	if(lut != null) {
+     		for(int ii = 0; ii < numInstances; ii++) {
+     			// the red ONLY map is read from its first probability slice, so its nodule pixels are the ones the table marks 255.
+     			if(near[ii] != 0 && lut.get((rgb[ii] >> 16) & 0xff, (rgb[ii] >> 8) & 0xff) != 0) {
+     				assignments[ii] = 0;
+     			}
+     		}
+     		updateBinaryMap(assignments);
+     		return;
+     	}
+     	
+     	// the model only looks at the color of each pixel, so it can run on just the nearby pixels packed together.
+     	int count = 0;
+     	for(byte value : near) {
+     		count += value;
+     	}
+     	if(count == 0) {
+     		return;
+     	}
+     	int packedWidth = (int) Math.ceil(Math.sqrt(count));
+     	int packedHeight = (count + packedWidth - 1) / packedWidth;
+     	int[] packed = new int[packedWidth * packedHeight];
+     	int[] source = new int[count];
+     	int cc = 0;
+     	for(int ii = 0; ii < numInstances; ii++) {
+     		if(near[ii] != 0) {
+     			source[cc] = ii;
+     			packed[cc++] = rgb[ii];
+     		}
+     	}
+     	ImagePlus nearby = new ImagePlus("near nodules", new ColorProcessor(packedWidth, packedHeight, packed));
+     	
+    	ColorClustering cluster = new ColorClustering(nearby);
+		if(!ModelCache.load(cluster, this.redModel)) {
+			IJ.log("Sorry, but the red ONLY model could not be loaded. "
+					+ "The program continues without this optimization.");
+			return;
+		}
+		cluster.setChannels(redChannels);
+		cluster.setNumSamples(packed.length);
 
-		FeatureStackArray tempFSA = cluster.createFSArray(image);
+		FeatureStackArray tempFSA = cluster.createFSArray(nearby);
 		
     	ImagePlus redBinaryMap = cluster.createProbabilityMaps(tempFSA);
-		
-    	byte[] assignments = getAssignments(redBinaryMap);
-    	redBinaryMap.show();
+		ByteProcessor redAssignments = new ByteProcessor(redBinaryMap.getBufferedImage());
     	
- 		List<Integer> redPixelsList = new ArrayList<>();
- 		
- 		for (int ii = 0; ii < numInstances; ii++) {
- 			if (assignments[ii] == 0) { // == 0 ==> segmented nodule pixel.
- 				redPixelsList.add(ii);
+ 		for (int ii = 0; ii < count; ii++) {
+ 			if (redAssignments.get(ii) == 0) { // == 0 ==> segmented nodule pixel.
+ 				assignments[source[ii]] = 0;
  			}
  		}
- 		
- 		int[] nodulePixels2 = new int[nodulePixels.length + redPixelsList.size()];
- 		
-		System.arraycopy(nodulePixels, 0, nodulePixels2, 0, nodulePixels.length);
- 		int counter = 0;
-		for( int ii = nodulePixels.length; ii < nodulePixels2.length; ii++) {
-			nodulePixels2[ii] = redPixelsList.get(counter++);
-		}
-		
-		
-		int[] uniqueArray = Arrays.stream(nodulePixels2).distinct().toArray();
-		Arrays.sort(uniqueArray);
-		
-		updateBinaryMap(uniqueArray);
 		
-		return uniqueArray;
+		updateBinaryMap(assignments);
 		
      }
      
      
+     /**
+      * Marks every pixel within reach of a nodule pixel, the nodules grown by a square of 
+      * 2 * reach + 1 pixels on a side.
+      * @param assignments : 0 ==> nodule pixel.
+      * @return : 1 for pixels within reach of a nodule pixel, 0 otherwise.
+      */
+     private static byte[] neighborhood(byte[] assignments, int width, int height, int reach) {
+    	 byte[] rows = new byte[width * height];
+    	 
+    	 // along each row, then along each column of the result.
+    	 for(int y = 0; y < height; y++) {
+    		 int last = Integer.MIN_VALUE / 2;
+    		 for(int x = 0; x < width; x++) {
+    			 if(assignments[y * width + x] == 0) {
+    				 last = x;
+    			 }
+    			 if(x - last <= reach) {
+    				 rows[y * width + x] = 1;
+    			 }
+    		 }
+    		 last = Integer.MAX_VALUE / 2;
+    		 for(int x = width - 1; x >= 0; x--) {
+    			 if(assignments[y * width + x] == 0) {
+    				 last = x;
+    			 }
+    			 if(last - x <= reach) {
+    				 rows[y * width + x] = 1;
+    			 }
+    		 }
+    	 }
+    	 
+    	 byte[] near = new byte[width * height];
+    	 for(int x = 0; x < width; x++) {
+    		 int last = Integer.MIN_VALUE / 2;
+    		 for(int y = 0; y < height; y++) {
+    			 if(rows[y * width + x] != 0) {
+    				 last = y;
+    			 }
+    			 if(y - last <= reach) {
+    				 near[y * width + x] = 1;
+    			 }
+    		 }
+    		 last = Integer.MAX_VALUE / 2;
+    		 for(int y = height - 1; y >= 0; y--) {
+    			 if(rows[y * width + x] != 0) {
+    				 last = y;
+    			 }
+    			 if(last - y <= reach) {
+    				 near[y * width + x] = 1;
+    			 }
+    		 }
+    	 }
+    	 return near;
+     }
+     
+     
 //   ==================================================
      /**
       * updates the binary map.
-      * @param nodulePixels : array of segmented nodule pixels used to override the current binary map.
+      * @param assignments : cluster assignments used to override the current binary map, 0 ==> segmented nodule pixel.
       */
-     private void updateBinaryMap(int[] nodulePixels) {
+     private void updateBinaryMap(byte[] assignments) {
     	 int width = this.image.getWidth();
     	 int height = this.image.getHeight();
     	 
     	 byte[] pixels = new byte[width*height];
     	 
     	 for( int ii = 0; ii < pixels.length; ii++) {
-    		 pixels[ii] = (byte) 255;
-    	 }
-    	 
-    	 
-    	 for( int ii = 0; ii < nodulePixels.length; ii++) {
-    		 pixels[nodulePixels[ii]] = 0;
+    		 pixels[ii] = assignments[ii] == 0 ? 0 : (byte) 255;
     	 }
     	 
     	 ByteProcessor bip = new ByteProcessor(width, height, pixels);
@@ -685,27 +823,13 @@ public class NoduleData {
       * A use case is to see how much of the nodules are not caught in segmentation.
       */
      public ImagePlus imageWithoutNodules() {
-    	 int width = this.image.getWidth();
     	 ColorProcessor cip = this.image.getProcessor().convertToColorProcessor();
-    	 int x,y;
+    	 int[] rgb = (int[]) cip.getPixels();
     	 
-    	 for( int loc : red.getPixels()) {
-    		  x = loc % width;
-    		  y = (int) loc / width;
-    		 
-    		 cip.putPixel(x, y, BLACK);
-    	 }
-    	 for( int loc : green.getPixels()) {
-    		  x = loc % width;
-    		  y = (int) loc / width;
-    		 
-    		 cip.putPixel(x, y, BLACK);
-    	 }
-    	 for( int loc : mixed.getPixels()) {
-    		  x = loc %  width;
-    		  y = (int) loc / width;
-    		 
-    		 cip.putPixel(x, y, BLACK);
+    	 for( int loc = 0; loc < rgb.length; loc++) {
+    		 if(classMap.isNodule(loc)) {
+    			 rgb[loc] = (0xff << 24) | (BLACK[0] << 16) | (BLACK[1] << 8) | BLACK[2];
+    		 }
     	 }
     	ImagePlus imageNoNodules = new ImagePlus("Image with nodules removed", cip);
     	imageNoNodules.show();
@@ -722,6 +846,10 @@ public class NoduleData {
       */
      public void run(String saveFile) {
     	 
+    	 if(!this.headless) {
+    		 ImagePyramid.of(this.image); // built in the background, ready by the time nodules are reviewed.
+    	 }
+    	 
     	 generateSegmentedMap();
     	 
     	 IJ.log("========================");
@@ -738,30 +866,46 @@ public class NoduleData {
     	 mixed.getData(true);
     	 
     	 
-    	 if(mixed.getRois() != null) {
-    		 if(mixed.getRois().length > 0) {
+    	 boolean hasMixed = mixed.getRois() != null && mixed.getRois().length > 0;
+    	 if(hasMixed) {
     		 IJ.log("==========================");
         	 IJ.log(" FINDING  MIXED  NODULES. ");
         	 IJ.log("==========================");
-        	 mixed.findMixedNodules(image, red, green);
+        	 mixed.groupMixedNodules();
+    	 }
+    	 
+    	 // saved before anyone is asked about the mixed nodules, so it can be reviewed later without
+    	 // segmenting the image again. Reviewing the bundle asks about them, see NoduleSegmentation.
+    	 if(this.classMap != null) {
+    		 File bundle = new File(saveFile, this.image.getShortTitle() + "." + SegmentationBundle.EXTENSION);
+    		 try {
+    			 SegmentationBundle.write(bundle, this.image, this.classMap, red, green, mixed);
+    		 } catch(IOException e) {
+    			 IJ.log("Could not save " + bundle.getName() + ": " + e.getMessage());
     		 }
     	 }
     	 
-    	 IJ.save(Visualize(), saveFile + "\\vis.png");	
+    	 if(hasMixed) {
+    		 mixed.removeFakeNodules();
+    		 mixed.mergeMixedNodules(image, red, green);
+    	 }
+    	 
+    	 IJ.save(Visualize(), saveFile + File.separator + this.image.getShortTitle() + "_vis.png");	
     	 
     	 
     	 UserEditsHandler corrections = new UserEditsHandler(this.image, red, green, mixed);
-    	 corrections.run(saveFile);
-    	 
-    	 manager.reset();
-    	 manager.close();
-    	 WindowManager.closeAllWindows();
+    	 if(this.headless) {
+    		 corrections.save(saveFile);
+    	 }
+    	 else {
+    		 corrections.run(saveFile);
+    		 ImagePyramid.release(this.image);
+    	 }
     	 
     	 this.red = null;
     	 this.green = null;
     	 this.mixed = null;
     	 corrections = null;
-    	 System.gc();
     	 
     	 return;
     	 
@@ -771,116 +915,86 @@ public class NoduleData {
      
      
      
-//  ========================================================
-    /**
-     * Creates binary map.
-     * @param pixels : pixels to be drawn as foreground
-     * @param color : color to be used.
-     * @return : colored binary map(white and one chosen RGB color)
-     */
-	private ImagePlus createMap(int[] pixels, int[] color) {
-		
-		int width = binarymap.getWidth();
-		ColorProcessor nmp = new ColorProcessor(binarymap.getWidth(), binarymap.getHeight());
-		
-		
-		for( int ii = 0; ii < pixels.length; ii++) {
-			int loc = pixels[ii];
-			int x = loc % width;
-			int y = (loc - x) / width;
-			nmp.putPixel(x, y, color);
-		}
-		
-		if( color[0] == 255 && color[1] == 255) {
-			return new ImagePlus(image.getTitle() + "_mixed", nmp);
-		}
-		else if ( color[0] == 255) {
-			return new ImagePlus(image.getTitle() + "_red", nmp);
-		}
-		else {
-			return new ImagePlus(image.getTitle() + "_green",nmp);
-		}
-	}//===========================================================
-	
-	
-/**@return a graph of pixels plotted R against G with segmenting lines.*/
+/**@return a graph of pixels plotted R against G with segmenting lines, colored by their initial cluster.*/
 	public ImagePlus Visualize() {
 		
-		int[] clusterAssignments = getAssignmentsRandom();
-		Attribute redatt = instances.attribute(0);
-		Attribute greenatt = instances.attribute(1);
-		
-		double[] xDataCluster0 = new double[numInstances];
-		double[] yDataCluster0 = new double[numInstances];
-		double[] xDataCluster1 = new double[numInstances];
-		double[] yDataCluster1 = new double[numInstances];
-		
-		
-		int cluster0 = 0;
-		int cluster1 = 0;
+		int[] pixels = channels.getRGB();
 		
+		// counts[c][g * 256 + r] is the number of pixels in cluster c with red value r and green value g.
+		int[][] counts = new int[2][256 * 256];
 		for (int ii=0; ii <numInstances; ii++) {
-			double rValue = instances.get(ii).value(redatt);
-			double gValue = instances.get(ii).value(greenatt);
-			if (clusterAssignments[ii] ==0){
-				xDataCluster0[cluster0] = rValue;
-				yDataCluster0[cluster0] = gValue;
-				cluster0++;
-			}
-			else if (clusterAssignments[ii] == 1) { 
-				xDataCluster1[cluster1] = rValue;
-				yDataCluster1[cluster1] = gValue;
-				cluster1++;
-			}
+			int bin = (((pixels[ii] >> 8) & 0xff) << 8) | ((pixels[ii] >> 16) & 0xff);
+			counts[initialAssignments[ii] == 0 ? 0 : 1][bin]++;
+		}
+		int max = 1;
+		for(int bin = 0; bin < 256 * 256; bin++) {
+			max = Math.max(max, counts[0][bin] + counts[1][bin]);
 		}
-		
-		
-		// Trim the arrays to remove unused elements
-		double[] xDataCluster0Trimmed = new double[cluster0];
-		double[] yDataCluster0Trimmed = new double[cluster0];
-		System.arraycopy(xDataCluster0, 0, xDataCluster0Trimmed, 0, cluster0);
-		System.arraycopy(yDataCluster0, 0, yDataCluster0Trimmed, 0, cluster0);
-
-		double[] xDataCluster1Trimmed = new double[cluster1];
-		double[] yDataCluster1Trimmed = new double[cluster1];
-		System.arraycopy(xDataCluster1, 0, xDataCluster1Trimmed, 0, cluster1);
-		System.arraycopy(yDataCluster1, 0, yDataCluster1Trimmed, 0, cluster1);
 		
 		Plot plot = new Plot("cluster distribution","Red","Green");
 		plot.setAxisXLog(false);
 		plot.setAxisYLog(false);
 		plot.setLimits(0, 255, 0, 255);
-		plot.setColor(Color.BLUE);
-		plot.addPoints(xDataCluster0Trimmed, yDataCluster0Trimmed, Plot.DOT);
-		
-		plot.setColor(Color.BLACK);
-		plot.addPoints(xDataCluster1Trimmed, yDataCluster1Trimmed, Plot.DOT);
-		
-		
+		ImageProcessor ip = plot.getProcessor().convertToRGB();
+		Rectangle frame = plot.getDrawingFrame();
+		ip.setClipRect(frame);
+		
+		// one cell per (R,G) pair: darker the more pixels have it, blue for cluster 0 and black for cluster 1.
+		double scale = Math.log1p(max);
+		for(int g = 0; g < 256; g++) {
+			int top = (int) Math.round(plot.scaleYtoPxl(g + 0.5));
+			int bottom = (int) Math.round(plot.scaleYtoPxl(g - 0.5));
+			for(int r = 0; r < 256; r++) {
+				int count0 = counts[0][(g << 8) | r];
+				int total = count0 + counts[1][(g << 8) | r];
+				if(total == 0) {
+					continue;
+				}
+				double density = 0.2 + 0.8 * Math.log1p(total) / scale;
+				int blue = (int) Math.round(255 * (1 - density) + 255 * density * count0 / total);
+				int grey = (int) Math.round(255 * (1 - density));
+				
+				int left = (int) Math.round(plot.scaleXtoPxl(r - 0.5));
+				int right = (int) Math.round(plot.scaleXtoPxl(r + 0.5));
+				Rectangle cell = new Rectangle(left, top, Math.max(1, right - left), Math.max(1, bottom - top)).intersection(frame);
+				if(!cell.isEmpty()) {
+					ip.setColor(new Color(grey, grey, blue));
+					ip.fillRect(cell.x, cell.y, cell.width, cell.height);
+				}
+			}
+		}
 		
-		plot.setColor(Color.GREEN);
+		ip.setColor(Color.GREEN);
 		int[] topLine = Line(TOPCUTOFFSLOPE,TOPB);
 		int[] RLine = new int[] {(int) RLINE, 0, (int) RLINE, 255};
 		double[][] values = parabola(BOTTOMA,0,BOTTOMB);
 		
 		for(int ii = 0; ii < values.length-1; ii++) {
-			plot.drawLine(values[ii][0], values[ii][1], values[ii+1][0], values[ii+1][1]);
+			drawLine(ip, plot, values[ii][0], values[ii][1], values[ii+1][0], values[ii+1][1]);
 		}
 		
-		plot.drawLine(topLine[0], topLine[1], topLine[2], topLine[3]);
-		plot.drawLine(RLine[0], RLine[1], RLine[2], RLine[3]);
+		drawLine(ip, plot, topLine[0], topLine[1], topLine[2], topLine[3]);
+		drawLine(ip, plot, RLine[0], RLine[1], RLine[2], RLine[3]);
 		
 		
 		int[] initialSegmentationLine = Line(initialSegmentationSlope, initialSegmentationB);
-		plot.drawLine(initialSegmentationLine[0], initialSegmentationLine[1], initialSegmentationLine[2], initialSegmentationLine[3]);
+		drawLine(ip, plot, initialSegmentationLine[0], initialSegmentationLine[1], initialSegmentationLine[2], initialSegmentationLine[3]);
 		
-		ImageProcessor plotImageProcessor = plot.getProcessor();
-		ImagePlus image = new ImagePlus(this.image.getShortTitle() + "_Color_Distribution", plotImageProcessor);
+		ImagePlus image = new ImagePlus(this.image.getShortTitle() + "_Color_Distribution", ip);
 		
 		return image;
 		
 	}
 	
+	
+	/**
+	 * Draws a line given in plot units onto the plot's image.
+	 */
+	private static void drawLine(ImageProcessor ip, Plot plot, double x1, double y1, double x2, double y2) {
+		ip.drawLine((int) Math.round(plot.scaleXtoPxl(x1)), (int) Math.round(plot.scaleYtoPxl(y1)),
+				(int) Math.round(plot.scaleXtoPxl(x2)), (int) Math.round(plot.scaleYtoPxl(y2)));
+	}
+	
 
 /**
  * 
@@ -888,35 +1002,7 @@ public class NoduleData {
  */
 	public ImagePlus combinedMap() {
 		
-		int[] greenNods = green.getPixels();
-		int[] redNods = red.getPixels();
-		int[] mixedNods = mixed.getPixels();
-		
-		ColorProcessor nmp = new ColorProcessor(this.image.getWidth(), this.image.getHeight());
-		
-	
-		
-		for (int kk = 0; kk < redNods.length; kk++) {
-			int loc = redNods[kk];
-			int x = loc % binarymap.getWidth();
-			int y = (loc - x) / binarymap.getWidth();
-			nmp.putPixel(x, y, RED);
-		}
-		
-		for (int ii = 0; ii < greenNods.length; ii++) {
-			int loc = greenNods[ii];
-			int x = loc % binarymap.getWidth();
-			int y = (loc - x) / binarymap.getWidth();
-			nmp.putPixel(x, y, GREEN);
-		}
-		
-		for (int kk = 0; kk < mixedNods.length; kk++) {
-			int loc = mixedNods[kk];
-			int x = loc % binarymap.getWidth();
-			int y = (loc - x) / binarymap.getWidth();
-			nmp.putPixel(x, y, YELLOW);
-		}
-		ImagePlus combinedMap= new ImagePlus(image.getTitle() + "_combined", nmp.getBufferedImage());
+		ImagePlus combinedMap= new ImagePlus(image.getTitle() + "_combined", classMap.render(RED, GREEN, YELLOW));
 		
 		return combinedMap;
 	}
@@ -961,114 +1047,5 @@ public class NoduleData {
 		
 		return values;
 	}
-			
-
-
-// ====================================================================
-/**
- * 
- * @param channels string of channels to get the greyscale of
- * @param im Image you're breaking down
- * @return array of greyscale images according to channels used
- */
-	ImageStack getChannelGreyscales(String[] channels, ImagePlus im) {
-		
-		boolean isgrey = false, isrgb = false, islab = false, ishsb = false;
-		ImagePlus grey, rgb, Lab, hsb;
-		ImageConverter ic;
-		ColorSpaceConverter conv = new ColorSpaceConverter();
-		ImageStack stack = new ImageStack();
-		stack.addSlice(im.getProcessor());
-		
-		
-		for (String channel : channels) {
-			if (channel == "grey") {
-				isgrey = true;
-			}
-			else if(channel == "R" || channel == "G" || channel == "B") {
-				isrgb = true;
-			}
-			else if(channel == "L" || channel == "a" || channel == "b") {
-				islab = true;
-			}
-			else if(channel == "Hue" || channel == "Sat" || channel == "Brightness") {
-				ishsb = true;
-			}
-		} 
-		
-		
-		if (isgrey) {
-			 grey = new ImagePlus("grey", im.getProcessor());
-			 ic = new ImageConverter(grey);
-			 ic.convertToGray8();
-		}else {grey=null;}
-		
-		if (isrgb) {
-			 rgb = new ImagePlus("rgb", im.getProcessor());
-			 ic = new ImageConverter(rgb);
-			 ic.convertToRGBStack();
-		}else {rgb=null;}
-		
-		if (islab) {
-			 Lab = new ImagePlus("Lab", im.getProcessor());
-			 ic = new ImageConverter(Lab);
-			 Lab = conv.RGBToLab(Lab);
-		}else {Lab=null;}
-		
-		if (ishsb) {
-			 hsb = new ImagePlus("hsb", im.getProcessor());
-			 ic = new ImageConverter(hsb);
-			 ic.convertToHSB();
-		}else {hsb=null;}
-		
-	
-		for(String choice : channels) {
-			switch(choice) {
-			case "grey":
-				stack.addSlice("grey", grey.getProcessor().convertToFloat());
-				break;
-			case "R":
-				stack.addSlice("R", rgb.getStack().getProcessor(1).convertToFloat());
-				break;
-			
-			case "G":
-				stack.addSlice("G", rgb.getStack().getProcessor(2).convertToFloat());
-				break;
-					
-			case "B":
-				stack.addSlice("B", rgb.getStack().getProcessor(3).convertToFloat());
-				break;
-					
-			case "L":
-				stack.addSlice("L", Lab.getStack().getProcessor(1).convertToFloat());
-				break;
-					
-			case "a":
-				stack.addSlice("a", Lab.getStack().getProcessor(2).convertToFloat());
-				break;
-					
-			case "b":
-				stack.addSlice("b", Lab.getStack().getProcessor(3).convertToFloat());
-				break;
-				
-			case "Hue":
-				stack.addSlice("Hue", hsb.getStack().getProcessor(1).convertToFloat());
-				break;
-					
-			case "Sat":
-				stack.addSlice("Sat", hsb.getStack().getProcessor(2).convertToFloat());
-				
-				break;
-					
-			case "Brightness":
-				stack.addSlice("Brightness", hsb.getStack().getProcessor(3).convertToFloat());
-				break;
-			}//switch case
-				
-		} 
-			
-			
-		return stack;
-	}//===============================================================
 
 }
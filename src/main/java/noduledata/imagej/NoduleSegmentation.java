@@ -9,8 +9,11 @@
 package noduledata.imagej;
 
 import java.io.File;
+import java.io.IOException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 
 
@@ -45,7 +48,6 @@ public class NoduleSegmentation implements Command {
 	
 	
 	private final int SCALEFACTOR = 2;
-	public static ImagePlus image;
 	
     @Parameter
     private LogService logService;
@@ -59,13 +61,15 @@ public class NoduleSegmentation implements Command {
     
     /**
      * This method executes the image analysis for a single image then saves the output.
+     * Everything it creates belongs to this image only, so several calls can run at once.
      *
      * @param image : image to run the data analysis on.
      * @param model : path file to selected .model file.
      * @param saveFile : the user-designated path to save output.
      * @param menu : menu object that stores users input.
+     * @throws Exception : if the analysis of this image fails.
      */
-    private void execute(ImagePlus image, String model, String saveFile, Menu menu) {
+    private void execute(ImagePlus image, String model, String saveFile, Menu menu) throws Exception {
     	
     	ArrayList<Channel> channels = new ArrayList<Channel>(); // channels to use when segmenting.
     	channels.add(Channel.Red);
@@ -73,23 +77,28 @@ public class NoduleSegmentation implements Command {
    
 		
     	if(image.getType() != ImagePlus.COLOR_RGB) {
-			image = new ImagePlus(image.getTitle(), image.getProcessor().convertToRGB());
+    		ImagePlus rgb = new ImagePlus(image.getTitle(), image.getProcessor().convertToRGB());
+    		rgb.setFileInfo(image.getOriginalFileInfo()); // so its bundle can find the file again.
+			image = rgb;
 		}
 	
-		NoduleSegmentation.image= image;
 		ColorClustering cluster = new ColorClustering(image);
-		cluster.loadClusterer(model);
+		if(!ModelCache.load(cluster, model)) {
+			throw new IllegalStateException("Could not load model " + model);
+		}
 		cluster.setChannels(channels);
+		
+		ClusterLut lut = null;
+		if(menu.compiledModel) {
+			lut = ModelCache.compiled(model, channels);
+		}
 	
-	try {
-			NoduleData noduledata = new NoduleData(cluster,menu.redSingle, menu.greenSingle, menu.mixedSingle);
-			noduledata.run(saveFile);
-			
-			noduledata = null;
-			System.gc();
-	}	catch(Exception e) {
-		e.printStackTrace();
-	}
+		NoduleData noduledata = new NoduleData(cluster, lut, menu.redSingle, menu.greenSingle, menu.mixedSingle);
+		noduledata.setHeadless(menu.headless);
+		if(menu.redModelFile != null) {
+			noduledata.setRedModel(menu.redModelFile.getAbsolutePath());
+		}
+		noduledata.run(saveFile);
     }
      
     /**
@@ -122,10 +131,20 @@ public class NoduleSegmentation implements Command {
     	Menu menu = new Menu();
     	menu.run();
     	
-    	if(menu.file == null || menu.modelFile == null || menu.saveFile == null) {
+    	if(menu.file == null || menu.saveFile == null || (menu.modelFile == null && Menu.getFileType(menu.file) != Menu.BUNDLE)) {
     		IJ.log("done");
     		return;
     	}
+    	process(menu);
+    }
+    
+    
+    /**
+     * Runs the analysis on the image or folder of images selected in the menu.
+     * 
+     * @param menu : menu object that stores users input.
+     */
+    private void process(Menu menu) {
     	File file = menu.file;
     	File modelFile = menu.modelFile;
     	File saveFile = menu.saveFile;
@@ -136,24 +155,21 @@ public class NoduleSegmentation implements Command {
     	
     	switch(FILETYPE) {
     	case Menu.FOLDER:
-    		for(File subfile : file.listFiles()) {
+    		List<File> images = new ArrayList<>();
+    		File[] subfiles = file.listFiles();
+    		Arrays.sort(subfiles);
+    		
+    		for(File subfile : subfiles) {
     			subtype = Menu.getFileType(subfile);
     			
     			if(subtype != Menu.IMAGE) {
         			continue;
         		}
-    			try {
-    				ImagePlus tempim = new ImagePlus(subfile.getPath());
-    				execute(tempim, modelFile.getPath(), saveFile.getAbsolutePath(), menu);
-    			}catch(Exception e) {
-    				
-    				System.out.println("++++++++++++++++++++++++++");
-    				System.out.println("Could not generate data for " + subfile.getName());
-    				System.out.println("++++++++++++++++++++++++++");
-    				e.printStackTrace();
-    				continue;
-    			}
+    			images.add(subfile);
     		}
+    		
+    		BatchProcessor batch = new BatchProcessor(menu.threads);
+    		batch.process(images, tempim -> execute(tempim, modelFile.getPath(), saveFile.getAbsolutePath(), menu));
     		break;
     		
     	case Menu.IMAGE:
@@ -169,9 +185,15 @@ public class NoduleSegmentation implements Command {
     		}
     		break;
     		
+    	case Menu.BUNDLE:
+    		review(file, saveFile.getAbsolutePath(), menu);
+    		break;
+    		
     	case Menu.OTHERFILETYPE:
     		IJ.log("no acceptable filetype found.");
-    		System.exit(0);
+    		if(!menu.headless) {
+    			System.exit(0);
+    		}
     		break;
     	}
     	
@@ -180,14 +202,74 @@ public class NoduleSegmentation implements Command {
     }//===========================================================================================
 
     /**
-     * This main function serves for development purposes.
-     * It allows you to run the plugin immediately out of
-     * your integrated development environment (IDE).
+     * Opens a saved bundle and reviews its nodules without segmenting the image again: asks which
+     * mixed nodules are real, merges them with their neighbors, then shows the review window.
+     * Headless, every mixed nodule is kept and the output is saved straight from the bundle.
+     *
+     * @param file : bundle written by an earlier run.
+     * @param saveFile : the user-designated path to save output.
+     * @param menu : menu object that stores users input.
+     */
+    private void review(File file, String saveFile, Menu menu) {
+    	SegmentationBundle bundle;
+    	try {
+    		bundle = SegmentationBundle.read(file);
+    	}catch(IOException e) {
+    		System.out.println("++++++++++++++++++++++++++");
+    		System.out.println("Could not open " + file.getName() + ": " + e.getMessage());
+    		System.out.println("++++++++++++++++++++++++++");
+    		return;
+    	}
+    	
+    	bundle.getRed().setHeadless(menu.headless);
+    	bundle.getGreen().setHeadless(menu.headless);
+    	bundle.getMixed().setHeadless(menu.headless);
+    	
+    	// the bundle holds the mixed nodules as found, the user is asked about them now.
+    	MixedData mixed = bundle.getMixed();
+    	if(mixed.getRois() != null && mixed.getRois().length > 0) {
+    		mixed.removeFakeNodules();
+    		mixed.mergeMixedNodules(bundle.getImage(), bundle.getRed(), bundle.getGreen());
+    	}
+    	
+    	UserEditsHandler corrections = new UserEditsHandler(bundle.getImage(), bundle.getRed(), bundle.getGreen(), bundle.getMixed());
+    	if(menu.headless) {
+    		corrections.save(saveFile);
+    	}
+    	else {
+    		ImagePyramid.of(bundle.getImage());
+    		corrections.run(saveFile);
+    		ImagePyramid.release(bundle.getImage());
+    	}
+    }//===========================================================================================
+
+    /**
+     * With no arguments, this launches ImageJ and runs the plugin, which serves for 
+     * development purposes out of your integrated development environment (IDE).<br>
+     * With arguments, the analysis runs headless: no ImageJ window or dialog is shown,
+     * and the CSV and annotated images are written to the output folder. See {@link Menu#USAGE}.
      *
-     * @param args whatever, it's ignored
+     * @param args : nothing for the ImageJ UI, or the headless arguments.
      * @throws Exception
      */
     public static void main(final String... args) throws Exception { 
+    	if(args.length > 0) {
+    		if(System.getProperty("java.awt.headless") == null) {
+    			System.setProperty("java.awt.headless", "true");
+    		}
+    		
+    		Menu menu;
+    		try {
+    			menu = Menu.fromArgs(args);
+    		}catch(IllegalArgumentException e) {
+    			System.err.println(e.getMessage());
+    			System.exit(2);
+    			return;
+    		}
+    		new NoduleSegmentation().process(menu);
+    		return;
+    	}
+    	
         final ImageJ ij = new ImageJ();
         ij.launch(args);
             ij.command().run(NoduleSegmentation.class, true);
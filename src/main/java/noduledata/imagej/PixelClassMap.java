@@ -0,0 +1,305 @@
+package noduledata.imagej;
+
+import java.awt.Rectangle;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+
+
+/**
+ * The segmentation map of one image: a byte per pixel saying which nodule maps the pixel is on,
+ * shared by the red, green and mixed ColorData of the image instead of each keeping a full RGB
+ * image. Every class has its own bit, so the maps can overlap the way separate images could, e.g.
+ * once a mixed nodule is merged with the green nodule next to it.<br>
+ *
+ * RGB images are only rendered when something is shown or saved, see {@link #render(byte, int[])}.
+ * A companion int map, {@link #getLabels()}, holds component labels while one class is labeled.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class PixelClassMap {
+
+	private final int width;
+	private final int height;
+	private final byte[] classes; // bit (1 << (class - 1)) set ==> the pixel is on that class's map.
+	private int[] labels;         // allocated on first use.
+
+
+	/**
+	 * Makes an empty map.
+	 */
+	public PixelClassMap(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.classes = new byte[width * height];
+	}
+
+
+	/**
+	 * Makes a map from the classes PixelClassifier gives each pixel.
+	 *
+	 * @param classes : RED, GREEN, MIXED or NONE for every pixel, see {@link PixelClassifier}. Overwritten.
+	 * @param width : width of the image.
+	 * @param height : height of the image.
+	 */
+	public PixelClassMap(byte[] classes, int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.classes = classes;
+		for(int ii = 0; ii < classes.length; ii++) {
+			classes[ii] = classes[ii] == PixelClassifier.NONE ? 0 : bit(classes[ii]);
+		}
+	}
+
+
+	private static byte bit(byte cls) {
+		return (byte) (1 << (cls - 1));
+	}
+
+
+	public int getWidth() {
+		return width;
+	}
+
+
+	public int getHeight() {
+		return height;
+	}
+
+
+	/** @return : true if the pixel is on the map of the given class. */
+	public boolean contains(int index, byte cls) {
+		return (classes[index] & bit(cls)) != 0;
+	}
+
+
+	/** @return : true if the pixel is on any class's map. */
+	public boolean isNodule(int index) {
+		return classes[index] != 0;
+	}
+
+
+	/** Puts the pixel on the map of the given class. */
+	public void add(int index, byte cls) {
+		classes[index] |= bit(cls);
+	}
+
+
+	/** Takes every pixel off the map of the given class. */
+	public void clear(byte cls) {
+		byte keep = (byte) ~bit(cls);
+		for(int ii = 0; ii < classes.length; ii++) {
+			classes[ii] &= keep;
+		}
+	}
+
+
+	/**
+	 * Takes the pixels inside the rectangle off the map of the given class.
+	 */
+	public void clear(byte cls, Rectangle rect) {
+		byte keep = (byte) ~bit(cls);
+		Rectangle clip = rect.intersection(new Rectangle(width, height));
+		for(int y = clip.y; y < clip.y + clip.height; y++) {
+			for(int x = clip.x; x < clip.x + clip.width; x++) {
+				classes[y * width + x] &= keep;
+			}
+		}
+	}
+
+
+	/**
+	 * Takes the pixels of the roi off the map of the given class.
+	 */
+	public void clear(RunLengthRoi roi, byte cls) {
+		int[] runs = roi.getRuns();
+		byte keep = (byte) ~bit(cls);
+
+		for(int rr = 0; rr < runs.length; rr += 3) {
+			int y = runs[rr];
+			if(y < 0 || y >= height) {
+				continue;
+			}
+			int end = Math.min(runs[rr + 2], width);
+			for(int x = Math.max(runs[rr + 1], 0); x < end; x++) {
+				classes[y * width + x] &= keep;
+			}
+		}
+	}
+
+
+	/**
+	 * Puts every pixel of the roi on the map of the given class.
+	 */
+	public void add(Roi roi, byte cls) {
+		add(RunLengthRoi.of(roi), cls);
+	}
+
+
+	/**
+	 * Puts every pixel of the roi on the map of the given class.
+	 */
+	public void add(RunLengthRoi roi, byte cls) {
+		add(roi, cls, new Rectangle(width, height));
+	}
+
+
+	/**
+	 * Puts the pixels of the roi that are inside the rectangle on the map of the given class.
+	 */
+	public void add(RunLengthRoi roi, byte cls, Rectangle rect) {
+		Rectangle clip = roi.getBounds().intersection(rect).intersection(new Rectangle(width, height));
+		int[] runs = roi.getRuns();
+		byte bit = bit(cls);
+
+		for(int rr = 0; rr < runs.length; rr += 3) {
+			int y = runs[rr];
+			if(y < clip.y || y >= clip.y + clip.height) {
+				continue;
+			}
+			int end = Math.min(runs[rr + 2], clip.x + clip.width);
+			for(int x = Math.max(runs[rr + 1], clip.x); x < end; x++) {
+				classes[y * width + x] |= bit;
+			}
+		}
+	}
+
+
+	/**
+	 * @return : the indices of the pixels on the map of the given class, in ascending order.
+	 */
+	public int[] indices(byte cls) {
+		byte bit = bit(cls);
+		int count = 0;
+		for(byte value : classes) {
+			if((value & bit) != 0) {
+				count++;
+			}
+		}
+		int[] indices = new int[count];
+		int cc = 0;
+		for(int ii = 0; ii < classes.length; ii++) {
+			if((classes[ii] & bit) != 0) {
+				indices[cc++] = ii;
+			}
+		}
+		return indices;
+	}
+
+
+	/**
+	 * Returns the map of one class as a mask for {@link ComponentLabeler}.
+	 *
+	 * @return : 255 for pixels on the map, 0 otherwise.
+	 */
+	public byte[] mask(byte cls) {
+		byte bit = bit(cls);
+		byte[] mask = new byte[classes.length];
+		for(int ii = 0; ii < classes.length; ii++) {
+			if((classes[ii] & bit) != 0) {
+				mask[ii] = (byte) 255;
+			}
+		}
+		return mask;
+	}
+
+
+	/**
+	 * Returns the binary map of one class: black nodules on white.
+	 */
+	public ImagePlus binary(byte cls) {
+		byte[] pixels = mask(cls);
+		for(int ii = 0; ii < pixels.length; ii++) {
+			pixels[ii] = (byte) ~pixels[ii];
+		}
+		return new ImagePlus("binary", new ByteProcessor(width, height, pixels));
+	}
+
+
+	/**
+	 * Renders the map of one class: the given color on black.
+	 *
+	 * @param cls : RED, GREEN or MIXED.
+	 * @param color : RGB value to draw the class's pixels with.
+	 * @return : a new RGB image.
+	 */
+	public ColorProcessor render(byte cls, int[] color) {
+		int rgb = (0xff << 24) | (color[0] << 16) | (color[1] << 8) | color[2];
+		byte bit = bit(cls);
+		int[] pixels = new int[classes.length];
+		for(int ii = 0; ii < classes.length; ii++) {
+			if((classes[ii] & bit) != 0) {
+				pixels[ii] = rgb;
+			}
+		}
+		return new ColorProcessor(width, height, pixels);
+	}
+
+
+	/**
+	 * Renders every class on one image, mixed over green over red, on black.
+	 *
+	 * @param red : RGB value for red nodule pixels.
+	 * @param green : RGB value for green nodule pixels.
+	 * @param mixed : RGB value for mixed nodule pixels.
+	 * @return : a new RGB image.
+	 */
+	public ColorProcessor render(int[] red, int[] green, int[] mixed) {
+		int[][] colors = {red, green, mixed};
+		int[] rgb = new int[3];
+		for(int cc = 0; cc < 3; cc++) {
+			rgb[cc] = (0xff << 24) | (colors[cc][0] << 16) | (colors[cc][1] << 8) | colors[cc][2];
+		}
+
+		int[] pixels = new int[classes.length];
+		for(int ii = 0; ii < classes.length; ii++) {
+			int bits = classes[ii];
+			if(bits == 0) {
+				continue;
+			}
+			pixels[ii] = (bits & bit(PixelClassifier.MIXED)) != 0 ? rgb[2]
+					: (bits & bit(PixelClassifier.GREEN)) != 0 ? rgb[1] : rgb[0];
+		}
+		return new ColorProcessor(width, height, pixels);
+	}
+
+
+	/**
+	 * Writes the size and the class bits of every pixel to a bundle, see {@link SegmentationBundle}.
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(width);
+		out.writeInt(height);
+		out.write(classes);
+	}
+
+
+	/**
+	 * Reads a map written by {@link #writeTo}.
+	 */
+	static PixelClassMap readFrom(DataInputStream in) throws IOException {
+		PixelClassMap map = new PixelClassMap(in.readInt(), in.readInt());
+		in.readFully(map.classes);
+		return map;
+	}
+
+
+	/**
+	 * Returns the companion label map. It's shared by every class of the image, so labels
+	 * written to it are only valid until the next class is labeled.
+	 *
+	 * @return : one int per pixel, allocated on first use.
+	 */
+	public int[] getLabels() {
+		if(labels == null) {
+			labels = new int[classes.length];
+		}
+		return labels;
+	}
+}
@@ -0,0 +1,126 @@
+package noduledata.imagej;
+
+import java.util.stream.IntStream;
+
+
+/**
+ * Splits the segmented nodule pixels of an image into red, green and mixed pixels using the
+ * segmentation lines from NoduleData. The class of a pixel only depends on its red and green
+ * values, so the lines are evaluated once for every (R,G) pair up front; classifying a pixel is
+ * then a table lookup on the packed RGB value, without allocating anything.<br>
+ *
+ * Large images are split into bands of rows that are classified in parallel. The index arrays are
+ * filled band by band in row order, so they come out sorted, the same as a single pass would.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class PixelClassifier {
+
+	public static final byte NONE = 0;
+	public static final byte RED = 1;
+	public static final byte GREEN = 2;
+	public static final byte MIXED = 3;
+
+	private static final int MIN_BAND_HEIGHT = 64;
+
+	// CLASSES[(r << 8) | g] is the class of a nodule pixel with red value r and green value g.
+	private static final byte[] CLASSES = new byte[256 * 256];
+
+	static {
+		for(int r = 0; r < 256; r++) {
+			for(int g = 0; g < 256; g++) {
+				CLASSES[(r << 8) | g] = classify(r, g);
+			}
+		}
+	}
+
+	public int[] red;
+	public int[] green;
+	public int[] mixed;
+	public byte[] classes; // class of every pixel, NONE for background.
+
+
+	/**
+	 * The segmentation lines NoduleData uses to tell nodule pixels apart.
+	 *
+	 * @param rValue : red value of the pixel.
+	 * @param gValue : green value of the pixel.
+	 * @return : RED, GREEN or MIXED.
+	 */
+	public static byte classify(double rValue, double gValue) {
+		if (gValue > (rValue * NoduleData.TOPCUTOFFSLOPE + NoduleData.TOPB) || gValue > NoduleData.GLINE) {
+			return GREEN;
+		}
+		else if (gValue < (rValue * rValue * NoduleData.BOTTOMA + NoduleData.BOTTOMB) || rValue > NoduleData.RLINE) {
+			return RED;
+		}
+		return MIXED;
+	}
+
+
+	/**
+	 * Classifies every nodule pixel of the image.
+	 *
+	 * @param pixels : packed RGB pixels of the image.
+	 * @param assignments : cluster assignment of every pixel, 0 ==> segmented nodule pixel.
+	 * @param width : width of the image.
+	 * @param height : height of the image.
+	 * @return : the class of every pixel, and the sorted indices of the red, green and mixed pixels.
+	 */
+	public static PixelClassifier run(int[] pixels, byte[] assignments, int width, int height) {
+		int bands = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / MIN_BAND_HEIGHT));
+		int bandHeight = (height + bands - 1) / bands;
+
+		byte[] classes = new byte[pixels.length];
+		int[][] counts = new int[bands][4];
+
+		// first pass: classify every pixel and count each class per band.
+		IntStream.range(0, bands).parallel().forEach(band -> {
+			int start = Math.min(pixels.length, band * bandHeight * width);
+			int end = Math.min(pixels.length, (band + 1) * bandHeight * width);
+			int[] count = counts[band];
+
+			for(int ii = start; ii < end; ii++) {
+				if(assignments[ii] == 0) { // == 0 ==> segmented nodule pixel.
+					byte cls = CLASSES[(pixels[ii] >> 8) & 0xffff]; // (r << 8) | g
+					classes[ii] = cls;
+					count[cls]++;
+				}
+			}
+		});
+
+		// offsets of each band into the exact sized index arrays.
+		int[][] offsets = new int[bands][4];
+		int[] totals = new int[4];
+		for(int band = 0; band < bands; band++) {
+			for(int cls = RED; cls <= MIXED; cls++) {
+				offsets[band][cls] = totals[cls];
+				totals[cls] += counts[band][cls];
+			}
+		}
+
+		PixelClassifier result = new PixelClassifier();
+		result.classes = classes;
+		result.red = new int[totals[RED]];
+		result.green = new int[totals[GREEN]];
+		result.mixed = new int[totals[MIXED]];
+		int[][] indices = {null, result.red, result.green, result.mixed};
+
+		// second pass: write the indices.
+		IntStream.range(0, bands).parallel().forEach(band -> {
+			int start = Math.min(pixels.length, band * bandHeight * width);
+			int end = Math.min(pixels.length, (band + 1) * bandHeight * width);
+			int[] offset = offsets[band].clone();
+
+			for(int ii = start; ii < end; ii++) {
+				byte cls = classes[ii];
+				if(cls != NONE) {
+					indices[cls][offset[cls]++] = ii;
+				}
+			}
+		});
+
+		return result;
+	}
+}
@@ -0,0 +1,237 @@
+package noduledata.imagej;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+
+/**
+ * Distance between the outlines of two polygons, as used to decide whether nodule rois touch.
+ * Polygons that overlap or contain one another are 0 apart, otherwise the distance is the shortest
+ * one between any edge of the first and any edge of the second, closing edges included.<br>
+ *
+ * Everything is compared as squared distances, and bounding boxes are checked first, so polygons
+ * that are far apart never look at their edges. Outlines traced from large nodules have hundreds of
+ * edges; for those the edges of the second polygon are sorted by their left end and only the ones
+ * whose x range can come close enough are checked.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class PolygonDistance {
+
+	private static final int SWEEP = 32 * 32; // edge pairs above which the edges are sorted first.
+
+
+	/**
+	 * @return : the distance between the two polygons, 0 if they overlap.
+	 */
+	public static double distance(Polygon a, Polygon b) {
+		if(a.npoints == 0 || b.npoints == 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		if(overlap(a, b)) {
+			return 0;
+		}
+		return Math.sqrt(closest(a, b, Double.POSITIVE_INFINITY));
+	}
+
+
+	/**
+	 * Checks whether the two polygons are less than the given distance apart, stopping as soon as
+	 * any pair of edges is close enough.
+	 *
+	 * @param a : first polygon.
+	 * @param b : second polygon.
+	 * @param d : distance the polygons must be closer than.
+	 * @return : true if the distance between the polygons is less than d.
+	 */
+	public static boolean withinDistance(Polygon a, Polygon b, double d) {
+		if(a.npoints == 0 || b.npoints == 0 || d <= 0) {
+			return false;
+		}
+		if(gap(a.getBounds(), b.getBounds()) >= d * d) {
+			return false;
+		}
+		if(overlap(a, b)) {
+			return true;
+		}
+		return closest(a, b, d * d) < d * d;
+	}
+
+
+	/**
+	 * Squared distance between two bounding boxes, 0 if they overlap.
+	 */
+	private static double gap(Rectangle a, Rectangle b) {
+		double dx = Math.max(0, Math.max(a.x - (b.x + b.width), b.x - (a.x + a.width)));
+		double dy = Math.max(0, Math.max(a.y - (b.y + b.height), b.y - (a.y + a.height)));
+		return dx * dx + dy * dy;
+	}
+
+
+	/**
+	 * True if one polygon lies inside the other. Polygons whose edges cross are found by the edge
+	 * distances instead, which are 0 for crossing edges.
+	 */
+	private static boolean overlap(Polygon a, Polygon b) {
+		if(!a.getBounds().intersects(b.getBounds())) {
+			return false;
+		}
+		return a.contains(b.xpoints[0], b.ypoints[0]) || b.contains(a.xpoints[0], a.ypoints[0]);
+	}
+
+
+	/**
+	 * Smallest squared distance between an edge of a and an edge of b, or a value at least limit
+	 * if no pair of edges is closer than limit. Stops at the first pair closer than limit when limit
+	 * isn't infinite.
+	 */
+	private static double closest(Polygon a, Polygon b, double limit) {
+		boolean stopEarly = limit != Double.POSITIVE_INFINITY;
+		double best = limit;
+
+		if((long) a.npoints * b.npoints <= SWEEP) {
+			for(int ii = 0; ii < a.npoints; ii++) {
+				int jj = (ii + 1) % a.npoints;
+				for(int kk = 0; kk < b.npoints; kk++) {
+					int ll = (kk + 1) % b.npoints;
+					double d = segments(a.xpoints[ii], a.ypoints[ii], a.xpoints[jj], a.ypoints[jj],
+							b.xpoints[kk], b.ypoints[kk], b.xpoints[ll], b.ypoints[ll]);
+					if(d < best) {
+						best = d;
+						if(stopEarly) {
+							return best;
+						}
+					}
+				}
+			}
+			return best;
+		}
+
+		// edges of b sorted by their left end. Packed as (left x << 32 | edge), left x is never negative
+		// after the shift below, so the packed values sort by x.
+		int shift = b.getBounds().x;
+		long[] order = new long[b.npoints];
+		int longest = 0;
+		for(int kk = 0; kk < b.npoints; kk++) {
+			int ll = (kk + 1) % b.npoints;
+			int left = Math.min(b.xpoints[kk], b.xpoints[ll]) - shift;
+			longest = Math.max(longest, Math.abs(b.xpoints[ll] - b.xpoints[kk]));
+			order[kk] = ((long) left << 32) | kk;
+		}
+		Arrays.sort(order);
+
+		for(int ii = 0; ii < a.npoints; ii++) {
+			int jj = (ii + 1) % a.npoints;
+			int left = Math.min(a.xpoints[ii], a.xpoints[jj]) - shift;
+			int right = Math.max(a.xpoints[ii], a.xpoints[jj]) - shift;
+			double reach = best == Double.POSITIVE_INFINITY ? Double.POSITIVE_INFINITY : Math.sqrt(best);
+
+			// edges of b that start at or after this one's left end, minus the reach and the
+			// longest edge of b, up to the ones that start past its right end plus the reach.
+			int start = reach == Double.POSITIVE_INFINITY ? 0
+					: lowerBound(order, (long) Math.floor(left - reach - longest));
+			for(int oo = start; oo < order.length; oo++) {
+				int bx = (int) (order[oo] >> 32);
+				if(bx > right + reach) {
+					break;
+				}
+				int kk = (int) order[oo];
+				int ll = (kk + 1) % b.npoints;
+				double d = segments(a.xpoints[ii], a.ypoints[ii], a.xpoints[jj], a.ypoints[jj],
+						b.xpoints[kk], b.ypoints[kk], b.xpoints[ll], b.ypoints[ll]);
+				if(d < best) {
+					best = d;
+					if(stopEarly) {
+						return best;
+					}
+					reach = Math.sqrt(best);
+				}
+			}
+		}
+		return best;
+	}
+
+
+	/**
+	 * Index of the first packed edge whose left end is at least x.
+	 */
+	private static int lowerBound(long[] order, long x) {
+		if(x <= 0) {
+			return 0;
+		}
+		int lo = 0;
+		int hi = order.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if((order[mid] >> 32) < x) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+
+	/**
+	 * Squared distance between the segments (x1,y1)-(x2,y2) and (x3,y3)-(x4,y4).
+	 */
+	static double segments(double x1, double y1, double x2, double y2, double x3, double y3, double x4, double y4) {
+		if(cross(x1, y1, x2, y2, x3, y3, x4, y4)) {
+			return 0;
+		}
+		return Math.min(Math.min(point(x1, y1, x3, y3, x4, y4), point(x2, y2, x3, y3, x4, y4)),
+				Math.min(point(x3, y3, x1, y1, x2, y2), point(x4, y4, x1, y1, x2, y2)));
+	}
+
+
+	/**
+	 * Squared distance from the point (px,py) to the segment (x1,y1)-(x2,y2).
+	 */
+	static double point(double px, double py, double x1, double y1, double x2, double y2) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double length = dx * dx + dy * dy;
+		double t = length == 0 ? 0 : ((px - x1) * dx + (py - y1) * dy) / length;
+		t = Math.max(0, Math.min(1, t));
+		double ex = x1 + t * dx - px;
+		double ey = y1 + t * dy - py;
+		return ex * ex + ey * ey;
+	}
+
+
+	/**
+	 * True if the segments (x1,y1)-(x2,y2) and (x3,y3)-(x4,y4) touch or cross.
+	 */
+	private static boolean cross(double x1, double y1, double x2, double y2, double x3, double y3, double x4, double y4) {
+		double d1 = side(x3, y3, x4, y4, x1, y1);
+		double d2 = side(x3, y3, x4, y4, x2, y2);
+		double d3 = side(x1, y1, x2, y2, x3, y3);
+		double d4 = side(x1, y1, x2, y2, x4, y4);
+
+		if(((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0))) {
+			return true;
+		}
+		return (d1 == 0 && between(x3, y3, x4, y4, x1, y1)) || (d2 == 0 && between(x3, y3, x4, y4, x2, y2))
+				|| (d3 == 0 && between(x1, y1, x2, y2, x3, y3)) || (d4 == 0 && between(x1, y1, x2, y2, x4, y4));
+	}
+
+
+	/**
+	 * Which side of the line through (x1,y1) and (x2,y2) the point (px,py) is on, 0 if on it.
+	 */
+	private static double side(double x1, double y1, double x2, double y2, double px, double py) {
+		return (x2 - x1) * (py - y1) - (y2 - y1) * (px - x1);
+	}
+
+
+	/**
+	 * True if the point (px,py), known to be on the line through the segment, is on the segment.
+	 */
+	private static boolean between(double x1, double y1, double x2, double y2, double px, double py) {
+		return Math.min(x1, x2) <= px && px <= Math.max(x1, x2) && Math.min(y1, y2) <= py && py <= Math.max(y1, y2);
+	}
+}
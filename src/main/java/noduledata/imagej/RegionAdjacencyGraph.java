@@ -0,0 +1,245 @@
+package noduledata.imagej;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+
+
+/**
+ * Which red, green and mixed nodule rois touch each other. All rois are drawn into one label
+ * image, then a single scan over it records every pair of rois with neighboring pixels,
+ * diagonals included, as an edge. Rois that overlap are connected as well. The few pixels covered
+ * by more than one roi keep the other labels on the side, so they still connect every roi
+ * covering them to its neighbors.<br>
+ *
+ * Two rois are connected exactly when their outlines are less than half a pixel apart, the test
+ * MixedData used to run on the polygons of every pair.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class RegionAdjacencyGraph {
+
+	public static final int RED = 0;
+	public static final int GREEN = 1;
+	public static final int MIXED = 2;
+
+	private final int[] offset = new int[4]; // node of roi ii of color c is offset[c] + ii.
+	private final int[][] neighbors;         // sorted neighbor nodes of every node.
+
+	private int[] labels;                    // node + 1 of the first roi covering each pixel, 0 ==> no roi.
+	private BitSet shared;                   // pixels covered by more than one roi.
+	private HashMap<Integer, int[]> others;  // labels of the other rois covering a shared pixel.
+
+
+	private RegionAdjacencyGraph(int[] counts) {
+		for(int color = RED; color <= MIXED; color++) {
+			offset[color + 1] = offset[color] + counts[color];
+		}
+		this.neighbors = new int[offset[3]][];
+	}
+
+
+	/**
+	 * Builds the graph for the given rois.
+	 *
+	 * @param width : width of the image the rois are on.
+	 * @param height : height of the image the rois are on.
+	 * @param red : red nodule rois, may be null.
+	 * @param green : green nodule rois, may be null.
+	 * @param mixed : mixed nodule rois, may be null.
+	 * @return : the graph.
+	 */
+	public static RegionAdjacencyGraph build(int width, int height, Roi[] red, Roi[] green, Roi[] mixed) {
+		Roi[][] rois = {red == null ? new Roi[0] : red, green == null ? new Roi[0] : green, mixed == null ? new Roi[0] : mixed};
+		RegionAdjacencyGraph graph = new RegionAdjacencyGraph(new int[] {rois[RED].length, rois[GREEN].length, rois[MIXED].length});
+
+		HashSet<Long> edges = new HashSet<>();
+		graph.labels = new int[width * height];
+		graph.shared = new BitSet();
+		graph.others = new HashMap<>();
+
+		for(int color = RED; color <= MIXED; color++) {
+			for(int ii = 0; ii < rois[color].length; ii++) {
+				if(rois[color][ii] != null) {
+					graph.draw(rois[color][ii], graph.offset[color] + ii + 1, width, height, edges);
+				}
+			}
+		}
+
+		// neighbors to the right, below, below left and below right of every pixel.
+		int[] labels = graph.labels;
+		long last = -1;
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				int index = y * width + x;
+				int label = labels[index];
+				if(label == 0) {
+					continue;
+				}
+				long pair;
+				if(x + 1 < width && (pair = pair(label, labels[index + 1])) >= 0 && pair != last) {
+					edges.add(last = pair);
+				}
+				if(y + 1 < height) {
+					for(int dx = -1; dx <= 1; dx++) {
+						if(x + dx >= 0 && x + dx < width && (pair = pair(label, labels[index + width + dx])) >= 0 && pair != last) {
+							edges.add(last = pair);
+						}
+					}
+				}
+			}
+		}
+
+		// every roi covering a shared pixel touches the neighbors of that pixel.
+		for(int index = graph.shared.nextSetBit(0); index >= 0; index = graph.shared.nextSetBit(index + 1)) {
+			int x = index % width;
+			int y = index / width;
+			for(int dy = -1; dy <= 1; dy++) {
+				for(int dx = -1; dx <= 1; dx++) {
+					if(x + dx < 0 || x + dx >= width || y + dy < 0 || y + dy >= height || (dx == 0 && dy == 0)) {
+						continue;
+					}
+					int neighbor = index + dy * width + dx;
+					for(int label : graph.others.get(index)) {
+						addAll(edges, label, labels[neighbor], graph.others.get(neighbor));
+					}
+				}
+			}
+		}
+		graph.labels = null;
+		graph.shared = null;
+		graph.others = null;
+
+		int[] degree = new int[graph.neighbors.length];
+		for(long edge : edges) {
+			degree[(int) (edge >> 32)]++;
+			degree[(int) edge]++;
+		}
+		for(int node = 0; node < degree.length; node++) {
+			graph.neighbors[node] = new int[degree[node]];
+			degree[node] = 0;
+		}
+		for(long edge : edges) {
+			int a = (int) (edge >> 32);
+			int b = (int) edge;
+			graph.neighbors[a][degree[a]++] = b;
+			graph.neighbors[b][degree[b]++] = a;
+		}
+		for(int[] list : graph.neighbors) {
+			Arrays.sort(list);
+		}
+		return graph;
+	}
+
+
+	/**
+	 * Draws the roi into the label image, recording an edge for every roi it covers.
+	 */
+	private void draw(Roi roi, int label, int width, int height, HashSet<Long> edges) {
+		Rectangle bounds = roi.getBounds();
+		ImageProcessor mask = roi.getMask(); // null ==> the whole bounding box.
+
+		for(int y = Math.max(0, bounds.y); y < Math.min(height, bounds.y + bounds.height); y++) {
+			for(int x = Math.max(0, bounds.x); x < Math.min(width, bounds.x + bounds.width); x++) {
+				if(mask != null && mask.get(x - bounds.x, y - bounds.y) == 0) {
+					continue;
+				}
+				int index = y * width + x;
+				if(labels[index] == 0) {
+					labels[index] = label;
+					continue;
+				}
+
+				int[] other = others.get(index);
+				addAll(edges, label, labels[index], other);
+				other = other == null ? new int[1] : Arrays.copyOf(other, other.length + 1);
+				other[other.length - 1] = label;
+				others.put(index, other);
+				shared.set(index);
+			}
+		}
+	}
+
+
+	/**
+	 * Adds an edge from the label to the given label and to each of the other labels.
+	 */
+	private static void addAll(HashSet<Long> edges, int label, int first, int[] other) {
+		long pair = pair(label, first);
+		if(pair >= 0) {
+			edges.add(pair);
+		}
+		if(other != null) {
+			for(int next : other) {
+				if((pair = pair(label, next)) >= 0) {
+					edges.add(pair);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Packs the nodes of two labels into one edge, smallest node first. -1 if they aren't two different rois.
+	 */
+	private static long pair(int a, int b) {
+		if(a == 0 || b == 0 || a == b) {
+			return -1;
+		}
+		long low = Math.min(a, b) - 1;
+		long high = Math.max(a, b) - 1;
+		return (low << 32) | high;
+	}
+
+
+	/**
+	 * Returns the rois of one color that touch the given roi.
+	 *
+	 * @param color : RED, GREEN or MIXED, the color of the roi.
+	 * @param index : index of the roi among the rois of its color.
+	 * @param neighborColor : RED, GREEN or MIXED, the color of the neighbors wanted.
+	 * @return : indices of the touching rois of neighborColor, in ascending order.
+	 */
+	public int[] getNeighbors(int color, int index, int neighborColor) {
+		int[] list = neighbors[offset[color] + index];
+		int from = offset[neighborColor];
+		int to = offset[neighborColor + 1];
+
+		int start = 0;
+		while(start < list.length && list[start] < from) {
+			start++;
+		}
+		int end = start;
+		while(end < list.length && list[end] < to) {
+			end++;
+		}
+
+		int[] result = new int[end - start];
+		for(int ii = start; ii < end; ii++) {
+			result[ii - start] = list[ii] - from;
+		}
+		return result;
+	}
+
+
+	/**
+	 * @return : true if the two rois touch or overlap.
+	 */
+	public boolean isAdjacent(int color, int index, int otherColor, int otherIndex) {
+		return Arrays.binarySearch(neighbors[offset[color] + index], offset[otherColor] + otherIndex) >= 0;
+	}
+
+
+	/**
+	 * @return : the number of rois of the given color.
+	 */
+	public int getCount(int color) {
+		return offset[color + 1] - offset[color];
+	}
+}
@@ -0,0 +1,203 @@
+package noduledata.imagej;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import ij.gui.Roi;
+
+
+/**
+ * Which nodule roi is on each pixel of an image, for finding the roi under a click without
+ * testing every roi's shape. Every roi gets an id when it's first seen, kept until the roi is
+ * gone, so edits only redraw the rois they touched. The pixels of each roi are the ones its
+ * ColorData object has for it, so a roi edited in place and set again is drawn again.<br>
+ *
+ * Where rois overlap, red is shown over green over mixed, the order UserEditsHandler looks for a
+ * clicked nodule in. Between rois of the same color, the one drawn first stays.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class RoiHitMap {
+
+	public static final int RED = 0;
+	public static final int GREEN = 1;
+	public static final int MIXED = 2;
+
+	private final int width;
+	private final int height;
+	private final int[] ids;                                            // id + 1 of the roi on each pixel, 0 ==> none.
+	private final ArrayList<Roi> rois = new ArrayList<>();              // by id, null once the roi is gone.
+	private final ArrayList<RunLengthRoi> rasters = new ArrayList<>();  // pixels of each roi when it was drawn, by id.
+	private final ArrayList<Rectangle> boxes = new ArrayList<>();       // bounds of each roi's pixels, by id.
+	private int[] colors = new int[16];                                 // color of each roi, by id.
+	private int[] live = new int[16];                                   // ids of the rois on the map, in no order.
+	private int[] slot = new int[16];                                   // where each id is in live, by id.
+	private int liveCount = 0;
+	private final IdentityHashMap<Roi, Integer> idOf = new IdentityHashMap<>();
+
+
+	/**
+	 * Makes an empty map.
+	 */
+	public RoiHitMap(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.ids = new int[width * height];
+	}
+
+
+	/**
+	 * Brings the map up to date with the rois of the given nodules: rois no longer there are taken
+	 * off and new ones are drawn. Rois already on the map keep their id and aren't drawn again,
+	 * unless their pixels changed, e.g. a roi edited in place and set again with setRoi.
+	 *
+	 * @param red : red nodules.
+	 * @param green : green nodules.
+	 * @param mixed : mixed nodules.
+	 */
+	public void update(ColorData red, ColorData green, ColorData mixed) {
+		ColorData[] current = {red, green, mixed};
+
+		IdentityHashMap<Roi, Integer> present = new IdentityHashMap<>();
+		IdentityHashMap<Roi, RunLengthRoi> pixels = new IdentityHashMap<>();
+		for(int color = RED; color <= MIXED; color++) {
+			Roi[] rois = current[color].getRois();
+			for(int ii = 0; rois != null && ii < rois.length; ii++) {
+				if(rois[ii] != null && !present.containsKey(rois[ii])) {
+					present.put(rois[ii], color);
+					pixels.put(rois[ii], current[color].getRaster(rois[ii]));
+				}
+			}
+		}
+
+		Iterator<Map.Entry<Roi, Integer>> entries = idOf.entrySet().iterator();
+		while(entries.hasNext()) {
+			Map.Entry<Roi, Integer> entry = entries.next();
+			int id = entry.getValue();
+			Integer color = present.get(entry.getKey());
+			if(color == null || color.intValue() != colors[id] || pixels.get(entry.getKey()) != rasters.get(id)) {
+				entries.remove();
+				remove(id);
+			}
+		}
+
+		for(Map.Entry<Roi, Integer> entry : present.entrySet()) {
+			if(!idOf.containsKey(entry.getKey())) {
+				int id = rois.size();
+				rois.add(entry.getKey());
+				rasters.add(pixels.get(entry.getKey()));
+				boxes.add(pixels.get(entry.getKey()).getBounds());
+				if(id == colors.length) {
+					colors = Arrays.copyOf(colors, 2 * id);
+					slot = Arrays.copyOf(slot, 2 * id);
+				}
+				if(liveCount == live.length) {
+					live = Arrays.copyOf(live, 2 * liveCount);
+				}
+				colors[id] = entry.getValue();
+				slot[id] = liveCount;
+				live[liveCount++] = id;
+				idOf.put(entry.getKey(), id);
+				draw(id, null);
+			}
+		}
+	}
+
+
+	/**
+	 * Draws the roi's pixels wherever no roi of its color or before is shown.
+	 *
+	 * @param id : the roi.
+	 * @param clip : only pixels inside it are drawn, null ==> all of them.
+	 */
+	private void draw(int id, Rectangle clip) {
+		int color = colors[id];
+		int[] runs = rasters.get(id).getRuns();
+		Rectangle area = new Rectangle(width, height);
+		if(clip != null) {
+			area = area.intersection(clip);
+		}
+
+		for(int rr = 0; rr < runs.length; rr += 3) {
+			int y = runs[rr];
+			if(y < area.y || y >= area.y + area.height) {
+				continue;
+			}
+			int end = Math.min(runs[rr + 2], area.x + area.width);
+			for(int x = Math.max(runs[rr + 1], area.x); x < end; x++) {
+				int index = y * width + x;
+				if(ids[index] == 0 || colors[ids[index] - 1] > color) {
+					ids[index] = id + 1;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Takes the roi off the map, showing the rois it covered in its place.
+	 */
+	private void remove(int id) {
+		Rectangle bounds = boxes.get(id);
+		int[] runs = rasters.get(id).getRuns();
+		for(int rr = 0; rr < runs.length; rr += 3) {
+			int y = runs[rr];
+			if(y < 0 || y >= height) {
+				continue;
+			}
+			for(int x = Math.max(runs[rr + 1], 0); x < Math.min(runs[rr + 2], width); x++) {
+				if(ids[y * width + x] == id + 1) {
+					ids[y * width + x] = 0;
+				}
+			}
+		}
+		rois.set(id, null);
+		rasters.set(id, null);
+		boxes.set(id, null);
+		int last = live[--liveCount];
+		live[slot[id]] = last;
+		slot[last] = slot[id];
+
+		for(int ii = 0; ii < liveCount; ii++) {
+			int other = live[ii];
+			if(boxes.get(other).intersects(bounds)) {
+				draw(other, bounds);
+			}
+		}
+	}
+
+
+	/**
+	 * Finds the roi shown on any pixel of the area, red before green before mixed.
+	 *
+	 * @param area : pixels to look at, e.g. the few around a click.
+	 * @return : the roi, null if none of the pixels are on one.
+	 */
+	public Roi find(Rectangle area) {
+		Rectangle clip = area.intersection(new Rectangle(width, height));
+		int best = -1;
+		for(int y = clip.y; y < clip.y + clip.height; y++) {
+			for(int x = clip.x; x < clip.x + clip.width; x++) {
+				int id = ids[y * width + x] - 1;
+				if(id >= 0 && (best == -1 || colors[id] < colors[best])) {
+					best = id;
+				}
+			}
+		}
+		return best == -1 ? null : rois.get(best);
+	}
+
+
+	/**
+	 * @return : RED, GREEN or MIXED, the color the roi was drawn as. -1 if it isn't on the map.
+	 */
+	public int getColor(Roi roi) {
+		Integer id = idOf.get(roi);
+		return id == null ? -1 : colors[id];
+	}
+}
@@ -0,0 +1,158 @@
+package noduledata.imagej;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+
+import ij.gui.Roi;
+import ij.gui.ShapeRoi;
+import ij.plugin.filter.ThresholdToSelection;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+
+/**
+ * The pixels of a nodule roi stored as horizontal runs, so the roi is rasterized once instead of
+ * every time its pixels or area are needed. Asking a ShapeRoi for its contained points rasterizes
+ * its shape again and makes a Point for every pixel; a nodule of a few thousand pixels is a few
+ * dozen runs here.<br>
+ *
+ * The runs are the same pixels getContainedPoints() gives for the roi. They aren't clipped to the
+ * image, same as the roi. ShapeRois are still what ImageJ shows and edits, see {@link #toShapeRoi()}.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class RunLengthRoi {
+
+	private final int[] runs;         // y, first x and last x + 1 of every run, top to bottom then left to right.
+	private final int area;
+	private final Rectangle bounds;
+	private Polygon polygon;          // traced on first use.
+
+
+	private RunLengthRoi(int[] runs, int area, Rectangle bounds) {
+		this.runs = runs;
+		this.area = area;
+		this.bounds = bounds;
+	}
+
+
+	/**
+	 * Rasterizes the roi.
+	 */
+	public static RunLengthRoi of(Roi roi) {
+		ImageProcessor mask = roi.getMask(); // null ==> the whole bounding box.
+		if(mask != null && !(mask instanceof ByteProcessor)) {
+			mask = mask.convertToByteProcessor(false);
+		}
+		return fromMask(mask == null ? null : (byte[]) mask.getPixels(), roi.getBounds());
+	}
+
+
+	/**
+	 * Makes the runs of a mask covering the given bounds.
+	 *
+	 * @param mask : bounds.width * bounds.height pixels, nonzero ==> in the roi. null ==> every pixel is.
+	 * @param bounds : where the mask is on the image.
+	 * @return : the roi.
+	 */
+	public static RunLengthRoi fromMask(byte[] mask, Rectangle bounds) {
+		int w = bounds.width;
+		int h = bounds.height;
+
+		int count = 0;
+		for(int y = 0; y < h; y++) {
+			for(int x = 0; x < w; x++) {
+				if(in(mask, y * w + x) && (x == 0 || !in(mask, y * w + x - 1))) {
+					count++;
+				}
+			}
+		}
+
+		int[] runs = new int[count * 3];
+		int area = 0;
+		int rr = 0;
+		for(int y = 0; y < h; y++) {
+			int x = 0;
+			while(x < w) {
+				if(!in(mask, y * w + x)) {
+					x++;
+					continue;
+				}
+				int start = x;
+				while(x < w && in(mask, y * w + x)) {
+					x++;
+				}
+				runs[rr++] = bounds.y + y;
+				runs[rr++] = bounds.x + start;
+				runs[rr++] = bounds.x + x;
+				area += x - start;
+			}
+		}
+		return new RunLengthRoi(runs, area, new Rectangle(bounds));
+	}
+
+
+	private static boolean in(byte[] mask, int index) {
+		return mask == null || mask[index] != 0;
+	}
+
+
+	/** @return : the number of pixels in the roi, getContainedPoints().length of the roi. */
+	public int getArea() {
+		return area;
+	}
+
+
+	/** @return : the bounding box the roi was rasterized in. */
+	public Rectangle getBounds() {
+		return new Rectangle(bounds);
+	}
+
+
+	/**
+	 * Returns the runs: y, first x and last x + 1 of each run, three ints per run, top to bottom
+	 * then left to right. The array is the roi's own, don't change it.
+	 */
+	public int[] getRuns() {
+		return runs;
+	}
+
+
+	/**
+	 * Converts the runs back to a roi ImageJ can show and edit.
+	 *
+	 * @return : the roi, null if there are no pixels.
+	 */
+	public ShapeRoi toShapeRoi() {
+		if(area == 0) {
+			return null;
+		}
+		ByteProcessor crop = new ByteProcessor(bounds.width, bounds.height);
+		byte[] pixels = (byte[]) crop.getPixels();
+		for(int rr = 0; rr < runs.length; rr += 3) {
+			int offset = (runs[rr] - bounds.y) * bounds.width - bounds.x;
+			for(int x = runs[rr + 1]; x < runs[rr + 2]; x++) {
+				pixels[offset + x] = (byte) 255;
+			}
+		}
+
+		crop.setThreshold(255, 255, ImageProcessor.NO_LUT_UPDATE);
+		Roi roi = new ThresholdToSelection().convert(crop);
+		Rectangle local = roi.getBounds();
+		roi.setLocation(bounds.x + local.x, bounds.y + local.y);
+		return new ShapeRoi(roi);
+	}
+
+
+	/**
+	 * @return : the outline of the roi, traced on the first call.
+	 */
+	public Polygon getPolygon() {
+		if(polygon == null) {
+			ShapeRoi roi = toShapeRoi();
+			polygon = roi == null ? new Polygon() : roi.getPolygon();
+		}
+		return polygon;
+	}
+}
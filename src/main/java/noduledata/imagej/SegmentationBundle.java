@@ -0,0 +1,246 @@
+package noduledata.imagej;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.gui.ShapeRoi;
+import ij.io.FileInfo;
+import ij.io.RoiDecoder;
+import ij.io.RoiEncoder;
+
+
+/**
+ * The result of segmenting one image, saved so the nodules can be reviewed later without
+ * segmenting the image again. A bundle holds the segmentation map and the red, green and mixed
+ * nodules: their rois, clumps, areas and measurements. The mixed nodules are saved as found, before
+ * the user is asked which are real and before they're merged with the red and green nodules next
+ * to them; both are done when the bundle is reviewed. The image itself isn't copied, only where it
+ * was opened from.<br>
+ *
+ * Bundles are gzipped binary files ending in {@link #EXTENSION}. Rois are stored in ImageJ's .roi format.
+ *
+ * @author Brandin Farris
+ *
+ */
+public class SegmentationBundle {
+
+	public static final String EXTENSION = "bundle";
+
+	private static final int MAGIC = 0x4E4F4442; // "NODB"
+	private static final int VERSION = 2; // 1 held the mixed nodules already merged.
+
+	private final ImagePlus image;
+	private final PixelClassMap map;
+	private final ColorData red;
+	private final ColorData green;
+	private final MixedData mixed;
+
+
+	private SegmentationBundle(ImagePlus image, PixelClassMap map, ColorData red, ColorData green, MixedData mixed) {
+		this.image = image;
+		this.map = map;
+		this.red = red;
+		this.green = green;
+		this.mixed = mixed;
+	}
+
+
+	/**
+	 * Saves the segmentation of an image.
+	 *
+	 * @param file : where to write the bundle.
+	 * @param image : the image that was segmented.
+	 * @param map : its segmentation map.
+	 * @param red : red nodules of the image.
+	 * @param green : green nodules of the image.
+	 * @param mixed : mixed nodules of the image.
+	 * @throws IOException : if the file can't be written.
+	 */
+	public static void write(File file, ImagePlus image, PixelClassMap map, ColorData red, ColorData green, MixedData mixed) throws IOException {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			FileInfo info = image.getOriginalFileInfo();
+			String path = info != null && info.directory != null && info.fileName != null ? new File(info.directory, info.fileName).getAbsolutePath() : "";
+			out.writeUTF(path);
+			out.writeUTF(image.getTitle());
+			out.writeInt(image.getWidth());
+			out.writeInt(image.getHeight());
+
+			map.writeTo(out);
+			red.writeTo(out);
+			green.writeTo(out);
+			mixed.writeTo(out);
+		}
+	}
+
+
+	/**
+	 * Opens a bundle and the image it was made from. The image is looked for where it was when
+	 * the bundle was written, then next to the bundle under the same name.
+	 *
+	 * @param file : a bundle written by {@link #write}.
+	 * @return : the bundle, with ColorData objects ready for {@link UserEditsHandler}.
+	 * @throws IOException : if the file can't be read, isn't a bundle, or the image can't be found.
+	 */
+	public static SegmentationBundle read(File file) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+			if(in.readInt() != MAGIC) {
+				throw new IOException(file.getName() + " is not a segmentation bundle.");
+			}
+			int version = in.readInt();
+			if(version != VERSION) {
+				throw new IOException(file.getName() + " is bundle version " + version + ", only version " + VERSION + " can be read.");
+			}
+
+			String path = in.readUTF();
+			String title = in.readUTF();
+			int width = in.readInt();
+			int height = in.readInt();
+			ImagePlus image = openImage(path, title, file.getParentFile());
+			if(image.getWidth() != width || image.getHeight() != height) {
+				throw new IOException(image.getTitle() + " is " + image.getWidth() + "x" + image.getHeight()
+						+ ", but the bundle was made from a " + width + "x" + height + " image.");
+			}
+
+			PixelClassMap map = PixelClassMap.readFrom(in);
+			ColorData red = readColorData(in, image, map, false);
+			ColorData green = readColorData(in, image, map, false);
+			MixedData mixed = (MixedData) readColorData(in, image, map, true);
+			return new SegmentationBundle(image, map, red, green, mixed);
+		}
+	}
+
+
+	/**
+	 * Opens the segmented image as RGB, under the title it was segmented with so the output is named the same.
+	 */
+	private static ImagePlus openImage(String path, String title, File folder) throws IOException {
+		File[] candidates = {path.isEmpty() ? null : new File(path), new File(folder, path.isEmpty() ? title : new File(path).getName())};
+		for(File candidate : candidates) {
+			if(candidate == null || !candidate.isFile()) {
+				continue;
+			}
+			ImagePlus image = new ImagePlus(candidate.getPath());
+			if(image.getProcessor() == null) {
+				continue;
+			}
+			if(image.getType() != ImagePlus.COLOR_RGB) {
+				ImagePlus rgb = new ImagePlus(title, image.getProcessor().convertToRGB());
+				rgb.setFileInfo(image.getOriginalFileInfo());
+				image = rgb;
+			}
+			image.setTitle(title);
+			return image;
+		}
+		throw new IOException("Could not find the image " + title + " the bundle was made from.");
+	}
+
+
+	/**
+	 * Reads one nodule type: the color and area threshold it was made with, then the rest of what
+	 * {@link ColorData#writeTo} wrote.
+	 */
+	private static ColorData readColorData(DataInputStream in, ImagePlus image, PixelClassMap map, boolean mixed) throws IOException {
+		int[] color = {in.readInt(), in.readInt(), in.readInt()};
+		int threshold = (int) in.readDouble();
+		ColorData data = mixed ? new MixedData(color, threshold, image) : new ColorData(color, threshold, image);
+		data.setMap(map);
+		data.readFrom(in);
+		return data;
+	}
+
+
+	/**
+	 * Writes a roi in ImageJ's .roi format, or an empty record for null.
+	 */
+	static void writeRoi(DataOutputStream out, Roi roi) throws IOException {
+		byte[] bytes = roi == null ? new byte[0] : RoiEncoder.saveAsByteArray(roi);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+
+	/**
+	 * Reads a roi written by {@link #writeRoi}.
+	 */
+	static ShapeRoi readRoi(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		if(bytes.length == 0) {
+			return null;
+		}
+		in.readFully(bytes);
+		Roi roi = RoiDecoder.openFromByteArray(bytes);
+		if(roi == null) {
+			throw new IOException("Could not decode a roi in the bundle.");
+		}
+		return roi instanceof ShapeRoi ? (ShapeRoi) roi : new ShapeRoi(roi);
+	}
+
+
+	/**
+	 * Writes an int array, or -1 for null.
+	 */
+	static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values == null ? -1 : values.length);
+		if(values != null) {
+			for(int value : values) {
+				out.writeInt(value);
+			}
+		}
+	}
+
+
+	/**
+	 * Reads an int array written by {@link #writeInts}.
+	 */
+	static int[] readInts(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0) {
+			return null;
+		}
+		int[] values = new int[length];
+		for(int ii = 0; ii < length; ii++) {
+			values[ii] = in.readInt();
+		}
+		return values;
+	}
+
+
+	/** @return : the segmented image. */
+	public ImagePlus getImage() {
+		return image;
+	}
+
+
+	/** @return : the segmentation map, shared by the three ColorData objects. */
+	public PixelClassMap getMap() {
+		return map;
+	}
+
+
+	public ColorData getRed() {
+		return red;
+	}
+
+
+	public ColorData getGreen() {
+		return green;
+	}
+
+
+	public MixedData getMixed() {
+		return mixed;
+	}
+}
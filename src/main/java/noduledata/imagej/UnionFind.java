@@ -0,0 +1,53 @@
+package noduledata.imagej;
+
+import java.util.Arrays;
+
+
+/**
+ * Growable union-find over labels 1 to size - 1, with path halving. The root of a set is always
+ * its lowest label.
+ *
+ * @author Brandin Farris
+ *
+ */
+class UnionFind {
+	int[] parent;
+	int size = 1;
+
+	UnionFind(int capacity) {
+		parent = new int[Math.max(2, capacity)];
+		for(int ii = 0; ii < parent.length; ii++) {
+			parent[ii] = ii;
+		}
+	}
+
+	int add() {
+		if(size == parent.length) {
+			int old = parent.length;
+			parent = Arrays.copyOf(parent, old * 2);
+			for(int ii = old; ii < parent.length; ii++) {
+				parent[ii] = ii;
+			}
+		}
+		return size++;
+	}
+
+	int find(int label) {
+		while(parent[label] != label) {
+			parent[label] = parent[parent[label]];
+			label = parent[label];
+		}
+		return label;
+	}
+
+	void union(int a, int b) {
+		int rootA = find(a);
+		int rootB = find(b);
+		if(rootA < rootB) {
+			parent[rootB] = rootA;
+		}
+		else if(rootB < rootA) {
+			parent[rootA] = rootB;
+		}
+	}
+}
@@ -1,8 +1,10 @@
 package noduledata.imagej;
 
 import java.awt.Color;
+import java.awt.EventQueue;
 import java.awt.Font;
 import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
 import java.awt.Image;
 import java.awt.Point;
 import java.awt.Rectangle;
@@ -12,11 +14,21 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.StringJoiner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.ImageIcon;
 
@@ -28,14 +40,14 @@ import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.FreehandRoi;
 import ij.gui.ImageCanvas;
-import ij.gui.OvalRoi;
 import ij.gui.Overlay;
 import ij.gui.Roi;
 import ij.gui.ShapeRoi;
 import ij.gui.TextRoi;
 import ij.gui.Toolbar;
 import ij.gui.WaitForUserDialog;
-import ij.plugin.frame.RoiManager;
+import ij.plugin.RoiScaler;
+import ij.process.ImageProcessor;
 
 /**
  * 
@@ -51,24 +63,29 @@ public class UserEditsHandler {
 	ColorData green;
 	ColorData red;
 	MixedData mixed;
-	private RoiManager manager = new RoiManager();
+	
+	// only one window waiting on the user is shown at a time, even when several images are computed in parallel.
+	static final Object REVIEW_LOCK = new Object();
 
 	ImagePlus imp;// original, unedited image
-	ImagePlus annotatedImp;
-	int x = 0;
-	int y = 0;
+	ImagePlus view;// imp scaled once to fit the review window, the nodule outlines are its overlay.
+	ImageCanvas canvas;
+	RoiHitMap hits;// which nodule is on each pixel of imp, for finding the clicked one.
 	int croppedCenterX;
 	int croppedCenterY;
 	int delete = -1;
-	double widthRatio = -1;
-	double heightRatio = -1;
-	double scaleRatio = -1;
+	double scaleRatio = 1; // view size / image size.
+
+	// overlay rois (outline, then clump label if any) of every nodule roi on the view. The outline's name is the label.
+	private final IdentityHashMap<Roi, Roi[]> drawn = new IdentityHashMap<>();
+	// pixels each drawn roi had when it was outlined, so rois edited in place are outlined again.
+	private final IdentityHashMap<Roi, RunLengthRoi> drawnPixels = new IdentityHashMap<>();
+	private volatile boolean editing = false; // an edit is being made on the worker thread.
 
 	int singleNoduleOption = -1;
 
 	// for handling button clicks.
 
-	final int FINISH = 0;
 	int BUTTON = -1;
 	final int REDRAW = 1;
 	final int CORRECT = 2;
@@ -79,13 +96,11 @@ public class UserEditsHandler {
 	final int GREEN = 1;
 	final int MIXED = 2;
 
-	final int screenwidth = Toolkit.getDefaultToolkit().getScreenSize().width;
-	final int screenheight = Toolkit.getDefaultToolkit().getScreenSize().height;
 	final int maxWidth = 1000; // Maximum width for the displayed image
 	final int maxHeight = 800; // Maximum height for the displayed image
-
-	int noduleCounter = 0;
-	int counter = noduleCounter;
+	// the screen size can't be queried without a display, but nothing is shown then either.
+	final int screenwidth = GraphicsEnvironment.isHeadless() ? maxWidth : Toolkit.getDefaultToolkit().getScreenSize().width;
+	final int screenheight = GraphicsEnvironment.isHeadless() ? maxHeight : Toolkit.getDefaultToolkit().getScreenSize().height;
 
 	/**
 	 * constructor method
@@ -103,87 +118,100 @@ public class UserEditsHandler {
 	}
 
 	/**
+	 * Brings the view's overlay up to date with the nodule rois. Only rois that were added, replaced,
+	 * reshaped or relabeled since the last call are scaled and drawn, the outlines of the others are kept.
+	 * The overlay itself isn't touched, the canvas may be painting it.
 	 * 
-	 * @return flattened original image outlining the identified nodules and
-	 *         numbering them.
+	 * @return : the changes to make to the overlay, to run where it's painted.
 	 */
-	private ImagePlus GetAnnotatedImage() {
-		ImagePlus output = new ImagePlus(imp.getShortTitle() + " annotated", imp.getProcessor());
-
-		Overlay overlay = new Overlay();
-		output.setOverlay(overlay);
-
-		TextRoi.setFont("SansSerif", 100, Font.BOLD);
-		Font font = new Font("SansSerif", Font.BOLD, 50);
-
-		for (int index = 0; index < red.getRois().length; index++) {
-			ShapeRoi roi = red.getRoi(index);
-			roi.setPosition(0);
-			roi.update(true, false);
-
-			// Add outlines to the ROI
-			roi.setStrokeColor(Color.white);
-			roi.setStrokeWidth(2);
-			output.getOverlay().add(roi);
-
-			if (red.getClump(index) != null) {
-				NoduleClump clump = red.getClump(index);
-				String label = Integer.toString(clump.numNodules);
-				TextRoi textLabel = new TextRoi(roi.getContourCentroid()[0], roi.getContourCentroid()[1], label, font);
-				textLabel.setStrokeColor(Color.white);
-				textLabel.setStrokeWidth(2);
-				output.getOverlay().add(textLabel);
+	private Runnable refreshOverlay() {
+		IdentityHashMap<Roi, String> shown = new IdentityHashMap<>(); // roi -> clump label, "" ==> no label.
+		IdentityHashMap<Roi, RunLengthRoi> pixels = new IdentityHashMap<>();
+		addShown(shown, pixels, red);
+		addShown(shown, pixels, green);
+
+		ShapeRoi[] mixedRois = mixed.getRois();
+		int[][] clumped = mixed.getClumped();
+		for (int index = 0; mixedRois != null && index < mixedRois.length; index++) {
+			if (clumped == null || (clumped[index][0] == -1 && clumped[index][1] == -1)) {
+				shown.put(mixedRois[index], "");
+				pixels.put(mixedRois[index], mixed.getRaster(mixedRois[index]));
 			}
 		}
 
-		for (int index = 0; index < green.getRois().length; index++) {
-
-			ShapeRoi roi = green.getRoi(index);
-			roi.setPosition(0);
-			roi.update(true, false);
-
-			// Add outlines to the ROI
-			roi.setStrokeColor(Color.white);
-			roi.setStrokeWidth(2);
-			output.getOverlay().add(roi);
-
-			if (green.getClump(index) != null) {
-				NoduleClump clump = green.getClump(index);
-				String label = Integer.toString(clump.numNodules);
-				TextRoi textLabel = new TextRoi(roi.getContourCentroid()[0], roi.getContourCentroid()[1], label, font);
-				textLabel.setStrokeColor(Color.white);
-				textLabel.setStrokeWidth(2);
-				output.getOverlay().add(textLabel);
+		ArrayList<Roi> removed = new ArrayList<>();
+		Iterator<Map.Entry<Roi, Roi[]>> entries = drawn.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<Roi, Roi[]> entry = entries.next();
+			String label = shown.get(entry.getKey());
+			if (label == null || !label.equals(entry.getValue()[0].getName())
+					|| pixels.get(entry.getKey()) != drawnPixels.get(entry.getKey())) {
+				for (Roi outline : entry.getValue()) {
+					removed.add(outline);
+				}
+				drawnPixels.remove(entry.getKey());
+				entries.remove();
 			}
-
 		}
 
-		for (ShapeRoi mixedRoi : mixed.getRois()) {
-			int index = mixed.getIndex(mixedRoi);
-
-			if (!(mixed.getClumped()[index][0] == -1 && mixed.getClumped()[index][1] == -1)) {
-				continue;
+		ArrayList<Roi> added = new ArrayList<>();
+		for (Map.Entry<Roi, String> entry : shown.entrySet()) {
+			if (!drawn.containsKey(entry.getKey())) {
+				Roi[] outline = outline(entry.getKey(), entry.getValue());
+				for (Roi part : outline) {
+					added.add(part);
+				}
+				drawn.put(entry.getKey(), outline);
+				drawnPixels.put(entry.getKey(), pixels.get(entry.getKey()));
 			}
-			mixedRoi.setPosition(0);
-			mixedRoi.update(true, false);
+		}
 
-			// Add outlines to the ROI
-			mixedRoi.setStrokeColor(Color.white);
-			mixedRoi.setStrokeWidth(2);
+		Overlay overlay = view.getOverlay();
+		return () -> {
+			for (Roi outline : removed) {
+				overlay.remove(outline);
+			}
+			for (Roi outline : added) {
+				overlay.add(outline);
+			}
+		};
+	}
 
-			output.getOverlay().add(mixedRoi);
+	/**
+	 * Adds every roi of the color with its clump label, the number of nodules in the clump, and its pixels.
+	 */
+	private static void addShown(IdentityHashMap<Roi, String> shown, IdentityHashMap<Roi, RunLengthRoi> pixels, ColorData color) {
+		ShapeRoi[] rois = color.getRois();
+		for (int index = 0; rois != null && index < rois.length; index++) {
+			NoduleClump clump = color.getClump(index);
+			shown.put(rois[index], clump == null ? "" : Integer.toString(clump.numNodules));
+			pixels.put(rois[index], color.getRaster(rois[index]));
 		}
+	}
 
-		output.getOverlay().drawNames(false);
-		output.getOverlay().drawBackgrounds(true);
-
-		try {
-			output.flattenStack();
-		} catch (Exception e) {
-			System.out.println("No ROI's to overlay.");
+	/**
+	 * Scales the roi onto the view and outlines it in white.
+	 * 
+	 * @param roi   : nodule roi on the original image.
+	 * @param label : text to draw at the roi's centroid, "" ==> none.
+	 * @return : the outline, then the label if there is one.
+	 */
+	private Roi[] outline(Roi roi, String label) {
+		Roi outline = RoiScaler.scale(roi, scaleRatio, scaleRatio, false);
+		outline.setName(label);
+		outline.setPosition(0);
+		outline.setStrokeColor(Color.white);
+		outline.setStrokeWidth(2);
+		if (label.isEmpty()) {
+			return new Roi[] { outline };
 		}
 
-		return output;
+		Font font = new Font("SansSerif", Font.BOLD, (int) Math.max(12, 50 * scaleRatio));
+		double[] centroid = roi.getContourCentroid();
+		TextRoi textLabel = new TextRoi(centroid[0] * scaleRatio, centroid[1] * scaleRatio, label, font);
+		textLabel.setStrokeColor(Color.white);
+		textLabel.setStrokeWidth(2);
+		return new Roi[] { outline, textLabel };
 	}
 
 	/**
@@ -204,45 +232,82 @@ public class UserEditsHandler {
 
 	/**
 	 * Method that's called to initialize part of the program allowing the user to
-	 * make manual changes.
+	 * make manual changes. Shows the review window and returns once the user has
+	 * finished or closed it.
 	 */
 	public void run(String saveFile) {
 
-		annotatedImp = GetAnnotatedImage();
+		synchronized (REVIEW_LOCK) {
+			CountDownLatch closed = new CountDownLatch(1);
+			ExecutorService editor = Executors.newSingleThreadExecutor();
 
-		Display(annotatedImp, saveFile);
+			Display(saveFile, editor, closed);
+
+			try {
+				closed.await();
+				editor.shutdown();
+				editor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS); // an edit still open when the window was closed.
+			} catch (InterruptedException e) {
+				editor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+
+			this.red = null;
+			this.mixed = null;
+			this.green = null;
+			this.view = null;
+			this.canvas = null;
+			this.hits = null;
+			drawn.clear();
+			drawnPixels.clear();
+		}
 
 		return;
 	}
 
 	/**
-	 * Displays the current annotated image and waits for user interaction.
+	 * Opens the review window. It stays open for the whole session: clicks on a
+	 * nodule are handled on the editor thread, and once an edit is made only the
+	 * outlines of the rois it changed are redrawn on the cached, scaled image.
+	 * 
+	 * @param saveFile : string object containing the user-specified save location.
+	 * @param editor   : single thread the edits and the save are run on, in order.
+	 * @param closed   : counted down when the window is gone.
 	 */
-	private void Display(ImagePlus animp, String saveFile) {
+	private void Display(String saveFile, ExecutorService editor, CountDownLatch closed) {
 
 		GenericDialogPlus gd = new GenericDialogPlus("Click on any Errors to Adjust.");
 		gd.addMessage("This image is displaying the nodules we've found. If any are wrong, you can "
 				+ "click on them to adjust them.");
 
-		int imageWidth = animp.getWidth();
-		int imageHeight = animp.getHeight();
+		int imageWidth = imp.getWidth();
+		int imageHeight = imp.getHeight();
+		ImageProcessor base = imp.getProcessor();
 
 		if (imageWidth > maxWidth || imageHeight > maxHeight) {
 			// Scale down the image while preserving the aspect ratio
 			double widthRatio = (double) maxWidth / imageWidth;
 			double heightRatio = (double) maxHeight / imageHeight;
-			double scaleRatio = Math.min(widthRatio, heightRatio);
-			this.widthRatio = widthRatio;
-			this.heightRatio = heightRatio;
-			this.scaleRatio = scaleRatio;
+			scaleRatio = Math.min(widthRatio, heightRatio);
 			imageWidth = (int) (imageWidth * scaleRatio);
 			imageHeight = (int) (imageHeight * scaleRatio);
-			animp = animp.resize(imageWidth, imageHeight, "bilinear");
-			
+			base = ImagePyramid.of(imp).getRegion(new Rectangle(imp.getWidth(), imp.getHeight()), imageWidth, imageHeight);
 		} else {
-			
+			scaleRatio = 1;
+			base = base.duplicate();
 		}
 
+		view = new ImagePlus(imp.getShortTitle() + " annotated", base);
+		Overlay overlay = new Overlay();
+		overlay.drawNames(false);
+		overlay.drawBackgrounds(true);
+		view.setOverlay(overlay);
+		drawn.clear();
+		drawnPixels.clear();
+		refreshOverlay().run(); // nothing paints the overlay yet.
+		hits = new RoiHitMap(imp.getWidth(), imp.getHeight());
+		hits.update(red, green, mixed);
+
 		int tx = (int) screenwidth;
 		int ty = (int) screenheight;
 		int height = imageHeight + 100;
@@ -250,17 +315,36 @@ public class UserEditsHandler {
 		int newx = (tx - width) / 2;
 		int newy = (ty - height) / 2;
 
-		ImageCanvas canvas = new ImageCanvas(animp);
+		canvas = new ImageCanvas(view);
 		gd.add(canvas);
 
 		canvas.addMouseListener(new MouseAdapter() {
 			@Override
 			public void mouseClicked(MouseEvent e) {
-				x = e.getPoint().x;
-				y = e.getPoint().y;
-				noduleCounter++;
-				gd.setVisible(false);
-				
+				if (editing) {
+					IJ.showStatus("Finish the current edit first.");
+					return;
+				}
+				editing = true;
+				Point p = e.getPoint();
+				System.out.println("POINT CLICKED: " + p.x + ", " + p.y);
+
+				editor.execute(() -> {
+					try {
+						UserEditsHandler.this.mouseClicked(p, (1 / scaleRatio), view);
+						Runnable changes = refreshOverlay();
+						hits.update(red, green, mixed);
+						ImageCanvas shown = canvas;
+						EventQueue.invokeLater(() -> {
+							changes.run();
+							shown.repaint();
+						});
+					} catch (Exception ex) {
+						IJ.log("Error while editing the nodule: " + ex);
+					} finally {
+						editing = false;
+					}
+				});
 			}
 		});
 
@@ -274,87 +358,39 @@ public class UserEditsHandler {
 		gd.addButton("Finish", new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				BUTTON = FINISH;
-				gd.dispose();
+				// after any edit that's still open, so the save sees it.
+				editor.execute(() -> {
+					save(saveFile);
+					gd.dispose();
+				});
+			}
+		});
+
+		gd.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosed(WindowEvent e) {
+				closed.countDown();
 			}
 		});
 
+		gd.setModal(false);
 		gd.setBounds(newx, newy, width, height);
 		gd.toFront();
 		gd.setVisible(true);
-
-		if (noduleCounter != counter) {
-			counter++;
-			System.out.println("POINT CLICKED: " + x + ", " + y);
-			Point p = new Point(x, y);
-			mouseClicked(p, (1 / scaleRatio), animp);
-			annotatedImp = GetAnnotatedImage();
-			gd.removeAll();
-			Display(annotatedImp, saveFile);
-		}
-
-		else if (BUTTON != -1) {
-
-			buttonClicked(saveFile);
-
-			if (BUTTON == FINISH) {
-				this.red = null;
-				this.mixed = null;
-				this.green = null;
-				this.annotatedImp = null;
-				System.gc();
-				return;
-			}
-
-			BUTTON = -1;
-			gd.removeAll();
-			Display(annotatedImp, saveFile);
-		}
 	}
 
 	/**
-	 * Method for handling when the user has clicked on one of the available buttons
-	 * on the user corrections menu.
+	 * Saves the CSV data and the annotated image without showing anything to the
+	 * user. This is what the finish button does, and what headless runs call
+	 * directly.
 	 * 
 	 * @param saveFile : string object containing the user-specified save location.
 	 */
-	private void buttonClicked(String saveFile) {
-
-		if (BUTTON == -1) {
-			IJ.log("Error, illegal state.");
-			return;
-		}
-		switch (BUTTON) {
-
-		case (FINISH):
-
-			String selectedFolder = saveFile + "\\";
-			
-			saveCSV(selectedFolder);
-			saveCombinedLabels(selectedFolder);
-			break;
-		}
-
-	}
-
-	/**
-	 * Gets the index of the nodule the user clicked on.
-	 * 
-	 * @param color : the object pertaining to the nodule type the user clicked on.
-	 * @param p     : pixel location that the user clicked on.
-	 * @return : the index or -1 if no index was found.
-	 */
-	private int getIndex(ColorData color, Point p) {
-
-		for (ShapeRoi roi : color.getRois()) {
-			ShapeRoi clicked = new ShapeRoi(new OvalRoi(p.x, p.y, 2, 2));
-			if (clicked.and(roi).getContainedPoints().length != 0) {
-				System.out.println("Found Roi that contains point.");
-				return color.getIndex(roi);
-			}
-		}
+	public void save(String saveFile) {
+		String selectedFolder = saveFile + File.separator;
 
-		return -1;
+		saveCSV(selectedFolder);
+		saveCombinedLabels(selectedFolder);
 	}
 
 	/**
@@ -380,22 +416,26 @@ public class UserEditsHandler {
 		String color = "None";
 		ShapeRoi roi = null;
 
-		if (getIndex(red, p) != -1) {
-			index = getIndex(red, p);
+		// the pixels a 2x2 oval at the click covers.
+		Roi clicked = hits.find(new Rectangle(p.x, p.y, 2, 2));
+		int clickedColor = clicked == null ? -1 : hits.getColor(clicked);
+
+		if (clickedColor == RoiHitMap.RED) {
+			index = red.getIndex(clicked);
 			System.out.println("Red nodule clicked.");
 			color = "red";
 			roi = red.getRoi(index);
 		}
 
-		else if (getIndex(green, p) != -1) {
-			index = getIndex(green, p);
+		else if (clickedColor == RoiHitMap.GREEN) {
+			index = green.getIndex(clicked);
 			System.out.println("Green nodule clicked.");
 			color = "green";
 			roi = green.getRoi(index);
 		}
 
-		else if (getIndex(mixed, p) != -1) {
-			index = getIndex(mixed, p);
+		else if (clickedColor == RoiHitMap.MIXED) {
+			index = mixed.getIndex(clicked);
 			System.out.println("Mixed nodule clicked.");
 			color = "mixed";
 			roi = mixed.getRoi(index);
@@ -715,15 +755,9 @@ public class UserEditsHandler {
 			return null;
 		}
 
-		double[] topLeft = { roi.getBounds().x, roi.getBounds().y };
-		int roiWidth = roi.getBounds().width;
-		int roiHeight = roi.getBounds().height;
-		int dimsX = (int) (2 * roiWidth);
-		int dimsY = (int) (2 * roiHeight);
-		int boxX = (int) (topLeft[0] - 0.25 * dimsX);
-		int boxY = (int) (topLeft[1] - 0.25 * dimsY);
-
-		ImagePlus image = getImageFromRoi(roi, this.imp);
+		// full size, so what's drawn on it is in image pixels from the box's corner.
+		Rectangle box = getBox(roi, this.imp);
+		ImagePlus image = getImageFromRoi(roi, this.imp, Integer.MAX_VALUE, Integer.MAX_VALUE);
 
 		image.show();
 		image.getWindow().toFront();
@@ -750,8 +784,8 @@ public class UserEditsHandler {
 
 		ShapeRoi newRoi = new ShapeRoi(image.getRoi());
 
-		int newx = newRoi.getBounds().x + boxX;
-		int newy = newRoi.getBounds().y + boxY;
+		int newx = newRoi.getBounds().x + box.x;
+		int newy = newRoi.getBounds().y + box.y;
 
 		newRoi.setLocation(newx, newy);
 
@@ -760,36 +794,13 @@ public class UserEditsHandler {
 	}
 
 	/**
-	 * Creates a zoomed in image of the given nodule. Used for display purposes.
+	 * Creates a zoomed in image of the given nodule, small enough for the dialogs. Used for display purposes.
 	 * 
 	 * @param roi Given Roi to zoom in on
 	 * @param imp image that contains the given roi.
 	 * @return a close up of the given roi
 	 */
 	public static ImagePlus getImageFromRoi(ShapeRoi roi, ImagePlus imp) {
-		ImagePlus image = new ImagePlus(imp.getShortTitle(), imp.getProcessor());
-
-		double[] topLeft = { roi.getBounds().x, roi.getBounds().y };
-		int roiWidth = roi.getBounds().width;
-		int roiHeight = roi.getBounds().height;
-
-		int dimsX = (int) (2 * roiWidth);
-		int dimsY = (int) (2 * roiHeight);
-		int boxX = (int) (topLeft[0] - 0.25 * dimsX);
-		int boxY = (int) (topLeft[1] - 0.25 * dimsY);
-
-		Rectangle imageBounds = new Rectangle(boxX, boxY, dimsX, dimsY);
-
-		image.setRoi(imageBounds);
-		image = image.crop();
-		Rectangle boundingBox = roi.getBounds();
-		boundingBox.setLocation((int) (0.25 * dimsX), (int) (0.25 * dimsY));
-
-		Overlay boxOverlay = new Overlay();
-		image.setOverlay(boxOverlay);
-
-		image.getOverlay().add(new Roi(boundingBox.x, boundingBox.y, boundingBox.width, boundingBox.height));
-
 		final int screenwidth = Toolkit.getDefaultToolkit().getScreenSize().width;
 		final int screenheight = Toolkit.getDefaultToolkit().getScreenSize().height;
 
@@ -797,45 +808,37 @@ public class UserEditsHandler {
 		// we want
 		// 100 pixel leeway between image and boundary of UI. More for the y axis to
 		// make the options visible.
-		// if the image is too big, scale it down while maintaining aspect ratio.
 		int largestAcceptableWidth = ((screenwidth - 600) / 2) - 100;
 		int largestAcceptableHeight = ((screenheight - 150) / 2) - 200;
-		double aspectRatio = ((double) image.getHeight()) / ((double) image.getWidth());
-
-		double xDiff = 0;
-		double yDiff = 0;
-		if (image.getWidth() > largestAcceptableWidth) {
-			xDiff = image.getWidth() - largestAcceptableWidth;
-		}
-		if (image.getHeight() > largestAcceptableHeight) {
-			yDiff = image.getHeight() - largestAcceptableHeight;
-		}
 
-		if (xDiff != 0 && yDiff == 0) {
-			int newHeight = (int) image.getHeight();
-			int newWidth = (int) (newHeight * 1 / aspectRatio);
-			image = image.resize(newWidth, newHeight, "none");
-		}
+		return getImageFromRoi(roi, imp, largestAcceptableWidth, largestAcceptableHeight);
+	}
 
-		else if (xDiff == 0 && yDiff != 0) {
-			int newWidth = (int) image.getWidth();
-			int newHeight = (int) (newWidth * aspectRatio);
-			image = image.resize(newWidth, newHeight, "none");
-		}
+	/**
+	 * Creates a zoomed in image of the given nodule, with its bounding box drawn
+	 * on. The close up is read from the image's {@link ImagePyramid}, so large
+	 * nodules on large images don't need the full resolution pixels.
+	 * 
+	 * @param roi       : Given Roi to zoom in on
+	 * @param imp       : image that contains the given roi.
+	 * @param maxWidth  : the image is scaled down, keeping its aspect ratio, if
+	 *                  it's wider than this.
+	 * @param maxHeight : or taller than this.
+	 * @return a close up of the given roi
+	 */
+	public static ImagePlus getImageFromRoi(ShapeRoi roi, ImagePlus imp, int maxWidth, int maxHeight) {
+		Rectangle box = getBox(roi, imp);
+		double scale = Math.min(1, Math.min((double) Math.max(1, maxWidth) / box.width, (double) Math.max(1, maxHeight) / box.height));
+		int width = Math.max(1, (int) (box.width * scale));
+		int height = Math.max(1, (int) (box.height * scale));
 
-		else if (xDiff != 0 && yDiff != 0) {
-			if (xDiff > yDiff) {
-				int newHeight = (int) largestAcceptableHeight;
-				int newWidth = (int) (newHeight * 1 / aspectRatio);
-				image = image.resize(newWidth, newHeight, "none");
-			}
+		ImagePlus image = new ImagePlus(imp.getShortTitle(), ImagePyramid.of(imp).getRegion(box, width, height));
 
-			if (yDiff > xDiff) {
-				int newWidth = largestAcceptableWidth;
-				int newHeight = (int) (newWidth * aspectRatio);
-				image = image.resize(newWidth, newHeight, "none");
-			}
-		}
+		Rectangle boundingBox = roi.getBounds();
+		Overlay boxOverlay = new Overlay();
+		image.setOverlay(boxOverlay);
+		image.getOverlay().add(new Roi((boundingBox.x - box.x) * scale, (boundingBox.y - box.y) * scale,
+				boundingBox.width * scale, boundingBox.height * scale));
 
 		try {
 			image.flattenStack();
@@ -846,6 +849,21 @@ public class UserEditsHandler {
 		return image;
 	}
 
+	/**
+	 * @return the part of the image shown around the roi: twice the roi's size
+	 *         with the roi in the middle, clipped to the image.
+	 */
+	private static Rectangle getBox(ShapeRoi roi, ImagePlus imp) {
+		Rectangle bounds = roi.getBounds();
+		int dimsX = 2 * bounds.width;
+		int dimsY = 2 * bounds.height;
+		int boxX = (int) (bounds.x - 0.25 * dimsX);
+		int boxY = (int) (bounds.y - 0.25 * dimsY);
+
+		Rectangle box = new Rectangle(boxX, boxY, dimsX, dimsY).intersection(new Rectangle(imp.getWidth(), imp.getHeight()));
+		return box.isEmpty() ? new Rectangle(0, 0, Math.min(1, imp.getWidth()), Math.min(1, imp.getHeight())) : box;
+	}
+
 	/**
 	 * updates the roi at the given index of the given color.
 	 * 
@@ -1101,13 +1119,11 @@ public class UserEditsHandler {
 	private void saveCombinedLabels(String saveLocation) {
 		ImagePlus image = this.imp;
 
-		manager.reset();
-		manager.setVisible(true);
-		manager.setEnabled(true);
+		Overlay overlay = new Overlay();
+		image.setOverlay(overlay);
 
 		int ii = 0;
 
-		image.show();
 		try {
 			for (Roi red1 : red.getRois()) {
 				// == null ==> not a clump
@@ -1116,7 +1132,8 @@ public class UserEditsHandler {
 				} else {
 					red1.setName("r " + red.getClump(ii).numNodules);
 				}
-				manager.add(image, red1, ii++);
+				overlay.add(red1);
+				ii++;
 			}
 		} catch (Exception e) {
 			System.out.println("No red ROI's found.");
@@ -1132,7 +1149,8 @@ public class UserEditsHandler {
 				} else {
 					green1.setName("g " + green.getClump(ii).numNodules);
 				}
-				manager.add(image, green1, ii++);
+				overlay.add(green1);
+				ii++;
 			}
 		} catch (Exception e) {
 			System.out.println("No green ROI's found.");
@@ -1142,19 +1160,17 @@ public class UserEditsHandler {
 				int index = mixed.getIndex(mixedRoi);
 				if (mixed.getClumped()[index][0] == -1 && mixed.getClumped()[index][1] == -1) {
 					mixedRoi.setName("m " + "1");
-					manager.add(image, mixedRoi, ii++);
+					overlay.add(mixedRoi);
+					ii++;
 				}
 			}
 		} catch (Exception e) {
 			System.out.println("No Mixed ROI's found.");
 		}
 
-		Overlay overlay = new Overlay();
-		image.setOverlay(overlay);
-
-		System.out.println(manager.getCount());
-		for (int i = 0; i < manager.getCount(); i++) {
-			Roi roi = manager.getRoi(i);
+		System.out.println(overlay.size());
+		for (int i = 0; i < overlay.size(); i++) {
+			Roi roi = overlay.get(i);
 
 			roi.setPosition(0);
 			roi.update(true, false);
@@ -1163,8 +1179,6 @@ public class UserEditsHandler {
 			roi.setStrokeColor(Color.white);
 			roi.setStrokeWidth(2);
 
-			image.getOverlay().add(roi);
-
 		}
 
 		image.getOverlay().drawNames(false);
@@ -1178,7 +1192,7 @@ public class UserEditsHandler {
 		image.getOverlay().setLabelColor(Color.white);
 		image.getOverlay().setLabelFont(overlay.getLabelFont());
 
-		IJ.saveAs("jpeg", saveLocation + "_Annotated");
+		IJ.saveAs(image, "jpeg", saveLocation + "_Annotated");
 
 		image.close();
 		System.out.println("All Roi's added to original image.");
@@ -0,0 +1,113 @@
+package noduledata.imagej;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+
+
+/**
+ * Times splitting the nodule pixels of an example image into red, green and mixed pixels, the way
+ * NoduleData.generateSegmentedMap did it before {@link PixelClassifier} and with PixelClassifier.<br>
+ *
+ * The clusterer isn't run: pixels with a red plus green value of at most 200 stand in for the
+ * segmented nodule pixels. Run with <code>mvn -P jmh verify</code> from the project folder.
+ *
+ * @author Brandin Farris
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g", "-Djava.awt.headless=true"})
+public class PixelClassifierBenchmark {
+
+	@Param({"Examples/PS001/PS001.JPG"})
+	public String path;
+
+	private ImagePlus image;
+	private int[] rgb;
+	private byte[] assignments; // 0 ==> nodule pixel, like the cluster assignments.
+
+
+	@Setup
+	public void setup() {
+		image = new ImagePlus(path);
+		if(image.getProcessor() == null) {
+			throw new IllegalStateException("Could not open " + path + ".");
+		}
+		rgb = new ChannelProvider(image).getRGB();
+		assignments = new byte[rgb.length];
+		for(int ii = 0; ii < rgb.length; ii++) {
+			int rValue = (rgb[ii] >> 16) & 0xff;
+			int gValue = (rgb[ii] >> 8) & 0xff;
+			assignments[ii] = (byte) (rValue + gValue > 200 ? 1 : 0);
+		}
+	}
+
+
+	/**
+	 * The loop PixelClassifier replaced: nodule pixel indices gathered through a boxed list, then
+	 * two getPixel calls per pixel.
+	 */
+	@Benchmark
+	public int[][] getPixelLoop() {
+		int width = image.getWidth();
+		List<Integer> indicesList = new ArrayList<>();
+		for(int ii = 0; ii < assignments.length; ii++) {
+			if(assignments[ii] == 0) {
+				indicesList.add(ii);
+			}
+		}
+		int[] nodulePixelIndices = indicesList.stream().mapToInt(Integer::intValue).toArray();
+
+		int[] green = new int[assignments.length];
+		int[] red = new int[assignments.length];
+		int[] mixed = new int[assignments.length];
+		int numGreen = 0;
+		int numRed = 0;
+		int numMixed = 0;
+
+		for(int loc : nodulePixelIndices) {
+			double gValue = image.getPixel(loc % width, loc / width)[1];
+			double rValue = image.getPixel(loc % width, loc / width)[0];
+
+			if(gValue > (rValue * NoduleData.TOPCUTOFFSLOPE + NoduleData.TOPB) || gValue > NoduleData.GLINE) {
+				green[numGreen++] = loc;
+			}
+			else if(gValue < (rValue * rValue * NoduleData.BOTTOMA + NoduleData.BOTTOMB) || rValue > NoduleData.RLINE) {
+				red[numRed++] = loc;
+			}
+			else {
+				mixed[numMixed++] = loc;
+			}
+		}
+
+		int[][] result = {new int[numRed], new int[numGreen], new int[numMixed]};
+		System.arraycopy(red, 0, result[0], 0, numRed);
+		System.arraycopy(green, 0, result[1], 0, numGreen);
+		System.arraycopy(mixed, 0, result[2], 0, numMixed);
+		return result;
+	}
+
+
+	@Benchmark
+	public PixelClassifier pixelClassifier() {
+		return PixelClassifier.run(rgb, assignments, image.getWidth(), image.getHeight());
+	}
+}